@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.api;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.sling.api.servlets.JakartaOptingServlet;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * An opting servlet which declares the parts of the request its
+ * {@link #accepts(org.apache.sling.api.SlingJakartaHttpServletRequest)} decision
+ * depends on.
+ * <p>
+ * The servlet resolver treats a plain opting servlet as uncacheable and asks it
+ * for every request. For a servlet implementing this interface the resolver may
+ * instead remember the decision for the values of the declared facets and reuse
+ * it for any later request with the same values. An implementation must
+ * therefore not look at anything else than the declared facets, and the
+ * declaration must not change over the lifetime of the servlet.
+ *
+ * @since 1.1.0
+ */
+@ConsumerType
+public interface CacheableOptingServlet extends JakartaOptingServlet {
+
+    /**
+     * The parts of the request an accepts decision can depend on.
+     */
+    enum RequestFacet {
+        /** The request method */
+        METHOD,
+        /** The selector string of the request path info */
+        SELECTORS,
+        /** The extension of the request path info */
+        EXTENSION,
+        /** The suffix of the request path info */
+        SUFFIX
+    }
+
+    /**
+     * The request facets the accepts decision depends on.
+     * @return The set of facets, might be empty
+     */
+    @NotNull
+    Set<RequestFacet> getRequestFacets();
+
+    /**
+     * The names of the request headers the accepts decision depends on.
+     * @return The set of header names, empty by default
+     */
+    default @NotNull Set<String> getRequestHeaders() {
+        return Collections.emptySet();
+    }
+}
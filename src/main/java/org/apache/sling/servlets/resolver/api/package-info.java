@@ -16,7 +16,7 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-@Version("1.0.0")
+@Version("1.1.0")
 package org.apache.sling.servlets.resolver.api;
 
 import org.osgi.annotation.versioning.Version;
@@ -51,9 +51,72 @@ public @interface ResolverConfig {
     @AttributeDefinition(
             name = "Cache Size",
             description = "This property configures the size of the "
-                    + "cache used for script resolution. A value lower than 5 disables the cache.")
+                    + "cache used for script resolution. A value lower than 5 disables the cache. Once the "
+                    + "cache is full, resolutions which have not been used recently are evicted.")
     int servletresolver_cacheSize() default 200; // NOSONAR
 
+    @AttributeDefinition(
+            name = "Cache Index Size",
+            description = "The maximum number of entries of the indexes of the resource type hierarchy and "
+                    + "of the script folders, which are used to invalidate only the affected resolutions on changes. "
+                    + "Once the resource type hierarchy is full, it is cleared together with the cache.")
+    int servletresolver_cacheIndexSize() default 10000; // NOSONAR
+
+    @AttributeDefinition(
+            name = "Pinned Resource Types",
+            description = "Resolutions for these resource types are never evicted from the cache, "
+                    + "even if the cache has reached its maximum size. They are still invalidated on changes.")
+    String[] servletresolver_cachePinnedResourceTypes() default {}; // NOSONAR
+
+    @AttributeDefinition(
+            name = "Cache Load Timeout",
+            description = "If a resolution which is not cached is requested concurrently, only one request "
+                    + "computes it while the others wait for the result up to this number of milliseconds. "
+                    + "After that, they compute the resolution themselves. A value of 0 disables waiting.")
+    int servletresolver_cacheLoadTimeout() default 1000; // NOSONAR
+
+    @AttributeDefinition(
+            name = "Stale While Revalidate",
+            description = "If enabled, cached resolutions affected by a resource change are not removed "
+                    + "but marked as stale. They are still used while they are resolved again in the background. "
+                    + "This should not be enabled on authoring instances where changes must be visible immediately.")
+    boolean servletresolver_cacheStaleWhileRevalidate() default false; // NOSONAR
+
+    @AttributeDefinition(
+            name = "Maximum Staleness",
+            description = "The maximum time in milliseconds a stale resolution is used. Once a resolution is "
+                    + "stale for a longer time, requests resolve it again instead of using it.")
+    int servletresolver_cacheMaxStaleness() default 10000; // NOSONAR
+
+    @AttributeDefinition(
+            name = "Invalidation Debounce",
+            description = "After the cache has been flushed or invalidated, resolutions are not cached for this "
+                    + "number of milliseconds. Every further invalidation extends this window, so that a burst of "
+                    + "changes, like a package installation, does not refill the cache after each change. "
+                    + "A value of 0 disables this.")
+    int servletresolver_cacheInvalidationDebounce() default 0; // NOSONAR
+
+    @AttributeDefinition(
+            name = "Cache Snapshot Interval",
+            description = "The interval in seconds in which the keys of the cached resolutions are written "
+                    + "to the bundle data area. On startup, these resolutions are computed in the background "
+                    + "to warm up the cache. A value of 0 disables snapshots and warm-up.")
+    int servletresolver_cacheSnapshotInterval() default 300; // NOSONAR
+
+    @AttributeDefinition(
+            name = "Script Resolver Pool Size",
+            description = "The maximum number of script resource resolvers which are kept for handling requests. "
+                    + "Instead of creating a new resource resolver per request, a pooled one is refreshed and reused. "
+                    + "A value of 0 disables the pool.")
+    int servletresolver_scriptResolverPoolSize() default 64; // NOSONAR
+
+    @AttributeDefinition(
+            name = "Script Resolver Pool Wait",
+            description = "The time in milliseconds a request waits for a pooled script resource resolver "
+                    + "if all of them are in use. After that, a new resource resolver is created for the request. "
+                    + "A value of 0 creates the new resource resolver right away.")
+    int servletresolver_scriptResolverPoolMaxWait() default 0; // NOSONAR
+
     @AttributeDefinition(
             name = "Execution Paths",
             description = "The paths to search for executable scripts. If no path is configured "
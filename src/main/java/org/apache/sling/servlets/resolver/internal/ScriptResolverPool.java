@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.servlets.resolver.jmx.ScriptResolverPoolMBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of clones of the shared script resource resolver, used for
+ * handling requests instead of a new clone per request.
+ * <p>
+ * A resource resolver is refreshed when it is taken from the pool, if a relevant
+ * change has been reported since its last refresh. If all resource resolvers are in
+ * use, a checkout waits for one to be returned. If none is returned in time, a
+ * temporary clone is used which is closed once it is returned.
+ * <p>
+ * When a resource resolver is returned, the state left by the request is dropped:
+ * pending changes are reverted and the property map is cleared, closing the
+ * {@link Closeable} values as {@link ResourceResolver#close()} would do.
+ */
+class ScriptResolverPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScriptResolverPool.class);
+
+    /** The refresh generation of resource resolvers which are not owned by the pool */
+    static final long NOT_POOLED = -1;
+
+    private final ResourceResolver sharedResolver;
+
+    private final int maximumSize;
+
+    private final long maxWaitMillis;
+
+    private final Consumer<ResourceResolver> refresher;
+
+    private final LongSupplier changeGeneration;
+
+    /** The idle resource resolvers, the most recently returned one first. */
+    private final LinkedBlockingDeque<ResourceResolver> idle = new LinkedBlockingDeque<>();
+
+    /** All resource resolvers owned by the pool, with the change generation they have been refreshed for. */
+    private final ConcurrentMap<ResourceResolver, Long> pooled = new ConcurrentHashMap<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder checkouts = new LongAdder();
+
+    private final LongAdder waits = new LongAdder();
+
+    private final LongAdder waitTime = new LongAdder();
+
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    private final LongAdder overflows = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * Create a new pool
+     * @param sharedResolver The resource resolver to clone
+     * @param maximumSize The maximum number of pooled resource resolvers
+     * @param maxWaitMillis The time to wait for a pooled resource resolver
+     * @param refresher Called whenever a resource resolver taken from the pool is refreshed
+     * @param changeGeneration The generation of the relevant changes, a resource resolver is only
+     *            refreshed if it changed since the last refresh
+     */
+    ScriptResolverPool(
+            final ResourceResolver sharedResolver,
+            final int maximumSize,
+            final long maxWaitMillis,
+            final Consumer<ResourceResolver> refresher,
+            final LongSupplier changeGeneration) {
+        this.sharedResolver = sharedResolver;
+        this.maximumSize = maximumSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.refresher = refresher;
+        this.changeGeneration = changeGeneration;
+    }
+
+    /**
+     * Take a resource resolver from the pool. It must be returned with {@link #checkin(ResourceResolver)}.
+     * @return The resource resolver
+     * @throws LoginException If a new resource resolver can't be created
+     */
+    ResourceResolver checkout() throws LoginException {
+        this.checkouts.increment();
+        while (!this.closed) {
+            ResourceResolver resolver = this.idle.pollFirst();
+            if (resolver == null) {
+                if (this.reserve()) {
+                    return this.create();
+                }
+                resolver = this.await();
+                if (resolver == null) {
+                    break;
+                }
+            }
+            if (resolver.isLive()) {
+                this.refreshIfChanged(resolver);
+                return resolver;
+            }
+            this.discard(resolver);
+        }
+        this.overflows.increment();
+        return this.sharedResolver.clone(null);
+    }
+
+    /**
+     * Return a resource resolver to the pool
+     * @param resolver The resource resolver returned by {@link #checkout()}
+     */
+    void checkin(final ResourceResolver resolver) {
+        if (!this.pooled.containsKey(resolver)) {
+            // temporary clone or created by a previous pool
+            resolver.close();
+            return;
+        }
+        if (this.closed || !resolver.isLive()) {
+            this.discard(resolver);
+            return;
+        }
+        this.clearRequestState(resolver);
+        this.idle.offerFirst(resolver);
+        // close might have drained the idle resolvers in the meantime
+        if (this.closed && this.idle.remove(resolver)) {
+            this.discard(resolver);
+        }
+    }
+
+    /**
+     * Get the change generation a resource resolver has last been refreshed for
+     * @param resolver The resource resolver
+     * @return The generation, {@link #NOT_POOLED} if the resource resolver is not owned by the pool.
+     *     Such a resource resolver is never refreshed.
+     */
+    long getRefreshGeneration(final ResourceResolver resolver) {
+        final Long generation = this.pooled.get(resolver);
+        return generation != null ? generation : NOT_POOLED;
+    }
+
+    /**
+     * Close the pool and all idle resource resolvers. Resource resolvers
+     * which are in use are closed once they are returned.
+     */
+    void close() {
+        this.closed = true;
+        ResourceResolver resolver;
+        while ((resolver = this.idle.pollFirst()) != null) {
+            this.discard(resolver);
+        }
+    }
+
+    private void clearRequestState(final ResourceResolver resolver) {
+        if (resolver.hasChanges()) {
+            resolver.revert();
+        }
+        final Map<String, Object> properties = resolver.getPropertyMap();
+        for (final Object value : properties.values()) {
+            if (value instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (final IOException | RuntimeException e) {
+                    LOGGER.debug("Unable to close resource resolver property", e);
+                }
+            }
+        }
+        properties.clear();
+    }
+
+    private void refreshIfChanged(final ResourceResolver resolver) {
+        final long current = this.changeGeneration.getAsLong();
+        final Long refreshed = this.pooled.get(resolver);
+        if (refreshed == null || refreshed != current) {
+            // refresh first to see the latest updates, then drop what has been cached before
+            resolver.refresh();
+            this.refresher.accept(resolver);
+            this.pooled.put(resolver, current);
+        }
+    }
+
+    private boolean reserve() {
+        int current;
+        do {
+            current = this.size.get();
+            if (current >= this.maximumSize) {
+                return false;
+            }
+        } while (!this.size.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private ResourceResolver create() throws LoginException {
+        try {
+            // a new resource resolver sees all changes reported so far
+            final long current = this.changeGeneration.getAsLong();
+            final ResourceResolver resolver = this.sharedResolver.clone(null);
+            this.pooled.put(resolver, current);
+            return resolver;
+        } catch (final LoginException | RuntimeException e) {
+            this.size.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private ResourceResolver await() {
+        if (this.maxWaitMillis <= 0) {
+            return null;
+        }
+        this.waits.increment();
+        final long start = System.nanoTime();
+        try {
+            return this.idle.pollFirst(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            final long waited = System.nanoTime() - start;
+            this.waitTime.add(waited);
+            this.maxWaitTime.accumulateAndGet(waited, Math::max);
+        }
+    }
+
+    private void discard(final ResourceResolver resolver) {
+        if (this.pooled.remove(resolver) != null) {
+            this.size.decrementAndGet();
+        }
+        try {
+            if (resolver.isLive()) {
+                resolver.close();
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.debug("Unable to close script resolver", e);
+        }
+    }
+
+    ScriptResolverPoolMBean createMBean() throws NotCompliantMBeanException {
+        return new ScriptResolverPoolMBeanImpl();
+    }
+
+    class ScriptResolverPoolMBeanImpl extends StandardMBean implements ScriptResolverPoolMBean {
+
+        ScriptResolverPoolMBeanImpl() throws NotCompliantMBeanException {
+            super(ScriptResolverPoolMBean.class);
+        }
+
+        @Override
+        public int getPoolSize() {
+            return size.get();
+        }
+
+        @Override
+        public int getMaximumPoolSize() {
+            return maximumSize;
+        }
+
+        @Override
+        public int getIdleCount() {
+            return idle.size();
+        }
+
+        @Override
+        public long getCheckoutCount() {
+            return checkouts.sum();
+        }
+
+        @Override
+        public long getWaitCount() {
+            return waits.sum();
+        }
+
+        @Override
+        public long getTotalWaitTime() {
+            return TimeUnit.NANOSECONDS.toMillis(waitTime.sum());
+        }
+
+        @Override
+        public long getMaximumWaitTime() {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+        }
+
+        @Override
+        public long getOverflowCount() {
+            return overflows.sum();
+        }
+    }
+}
@@ -19,8 +19,8 @@
 package org.apache.sling.servlets.resolver.internal;
 
 import java.util.Iterator;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 import jakarta.servlet.Servlet;
 import org.apache.sling.api.resource.AbstractResource;
@@ -34,7 +34,7 @@ import org.apache.sling.servlets.resolver.internal.resource.ServletResource;
 
 /**
  * ScriptResource is a resource wrapper of a resource fetched by a
- * per thread resource resolver.
+ * per request resource resolver.
  * As the script engines usually keep a reference to this resource
  * for a longer time, the resource switches internally to
  * a resource fetched by the shared resource resolver.
@@ -44,34 +44,85 @@ import org.apache.sling.servlets.resolver.internal.resource.ServletResource;
  */
 public class ScriptResource extends AbstractResource {
 
-    private AtomicReference<Resource> sharedResource = new AtomicReference<>();
-
     private final ResourceResolver sharedResourceResolver;
 
-    private final Supplier<ResourceResolver> perThreadResourceResolver;
+    private final Supplier<ResourceResolver> perRequestResourceResolver;
+
+    private final ToLongFunction<ResourceResolver> refreshGeneration;
 
     private final String path;
 
+    /** The resource last fetched by the per request resolver */
+    private volatile ResolvedResource perRequestResource;
+
+    /** The resource last fetched by the shared resolver */
+    private volatile ResolvedResource sharedResource;
+
+    /**
+     * Create a script resource for resolvers which are not refreshed while it is used
+     */
     public ScriptResource(
             final Resource resource,
-            final Supplier<ResourceResolver> perThreadScriptResolver,
+            final Supplier<ResourceResolver> perRequestScriptResolver,
             final ResourceResolver sharedResourceResolver) {
+        this(resource, perRequestScriptResolver, sharedResourceResolver, resolver -> 0L);
+    }
+
+    /**
+     * Create a script resource
+     * @param resource The resource to wrap
+     * @param perRequestScriptResolver Supplies the script resolver of the request using the script, if any
+     * @param sharedResourceResolver The resolver used outside of requests
+     * @param refreshGeneration Returns the change generation a resolver has been refreshed for, a
+     *            resource fetched with the resolver is used until the resolver is refreshed again
+     */
+    public ScriptResource(
+            final Resource resource,
+            final Supplier<ResourceResolver> perRequestScriptResolver,
+            final ResourceResolver sharedResourceResolver,
+            final ToLongFunction<ResourceResolver> refreshGeneration) {
         this.path = resource.getPath();
         this.sharedResourceResolver = sharedResourceResolver;
-        this.perThreadResourceResolver = perThreadScriptResolver;
+        this.perRequestResourceResolver = perRequestScriptResolver;
+        this.refreshGeneration = refreshGeneration;
+    }
+
+    /**
+     * Create a script resource for the same script, read with the script resolver of another request
+     * @param perRequestScriptResolver Supplies the script resolver of the request
+     * @return The script resource
+     */
+    public ScriptResource forRequest(final Supplier<ResourceResolver> perRequestScriptResolver) {
+        return new ScriptResource(this, perRequestScriptResolver, this.sharedResourceResolver, this.refreshGeneration);
     }
 
     private Resource getActiveResource() {
-        ResourceResolver perThreadResolver = this.perThreadResourceResolver.get();
-        if (perThreadResolver != null && perThreadResolver.isLive()) {
-            return perThreadResolver.getResource(this.path);
+        final ResourceResolver perRequestResolver = this.perRequestResourceResolver.get();
+        if (perRequestResolver != null && perRequestResolver.isLive()) {
+            // the resource is only fetched again if the resolver changed or has been refreshed,
+            // a pooled resolver keeps its identity across requests. The generation is read first,
+            // so a resource fetched during a refresh is not used afterwards.
+            final long generation = this.refreshGeneration.applyAsLong(perRequestResolver);
+            ResolvedResource resolved = this.perRequestResource;
+            if (resolved == null || !resolved.isValidFor(perRequestResolver, generation)) {
+                resolved =
+                        new ResolvedResource(perRequestResolver, generation, perRequestResolver.getResource(this.path));
+                this.perRequestResource = resolved;
+            }
+            return resolved.resource;
+        }
+        if (this.perRequestResource != null) {
+            // don't keep the resource of a released resolver
+            this.perRequestResource = null;
         }
-        Resource resource = this.sharedResource.get();
-        if (resource == null) {
-            resource = this.sharedResourceResolver.getResource(this.path);
-            this.sharedResource.set(resource);
+        final long generation = this.refreshGeneration.applyAsLong(this.sharedResourceResolver);
+        ResolvedResource resolved = this.sharedResource;
+        if (resolved == null || !resolved.isValidFor(this.sharedResourceResolver, generation)) {
+            resolved = new ResolvedResource(
+                    this.sharedResourceResolver, generation, this.sharedResourceResolver.getResource(this.path));
+            this.sharedResource = resolved;
         }
-        return resource;
+        return resolved.resource;
     }
 
     /**
@@ -218,4 +269,24 @@ public class ScriptResource extends AbstractResource {
                 + ", superType=" + getResourceSuperType()
                 + ", path=" + getPath();
     }
+
+    private static final class ResolvedResource {
+
+        final ResourceResolver resolver;
+
+        /** The change generation the resolver had been refreshed for when the resource has been fetched */
+        final long generation;
+
+        final Resource resource;
+
+        ResolvedResource(final ResourceResolver resolver, final long generation, final Resource resource) {
+            this.resolver = resolver;
+            this.generation = generation;
+            this.resource = resource;
+        }
+
+        boolean isValidFor(final ResourceResolver currentResolver, final long currentGeneration) {
+            return this.resolver == currentResolver && this.generation == currentGeneration;
+        }
+    }
 }
@@ -19,15 +19,27 @@
 package org.apache.sling.servlets.resolver.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import jakarta.servlet.RequestDispatcher;
 import jakarta.servlet.Servlet;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -58,13 +70,19 @@ import org.apache.sling.servlets.resolver.internal.helper.AbstractResourceCollec
 import org.apache.sling.servlets.resolver.internal.helper.LocationCollector;
 import org.apache.sling.servlets.resolver.internal.helper.NamedScriptResourceCollector;
 import org.apache.sling.servlets.resolver.internal.helper.ResourceCollector;
+import org.apache.sling.servlets.resolver.internal.helper.ScriptExtensionRanks;
+import org.apache.sling.servlets.resolver.internal.resolution.CachedResolution;
 import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache.FlushCause;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionKey;
 import org.apache.sling.servlets.resolver.internal.resource.MergingServletResourceProvider;
 import org.apache.sling.servlets.resolver.internal.resource.SlingServletConfig;
+import org.apache.sling.servlets.resolver.jmx.ScriptResolverPoolMBean;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
@@ -86,8 +104,8 @@ import static org.apache.sling.api.servlets.ServletResolverConstants.DEFAULT_ERR
  *
  * The SlingServletResolver uses uses dedicated ResourceResolver(s) for resolving the servlets.
  * In case the thread is handling a request, the {@link #onEvent(SlingRequestEvent)} method is called by the
- * Sling engine and a per-thread ResourceResolver is created, used and also closed when the request is
- * finished.
+ * Sling engine and a per-thread ResourceResolver is taken from a pool (or created), used and returned to
+ * the pool (or closed) when the request is finished.
  *
  * In case the thread does execute not within the context of a request, a shared ResourceResolver instance is used.
  *
@@ -104,6 +122,9 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
 
     private static final String SERVICE_USER = "scripts";
 
+    /** The request attribute holding the script resolver of the request */
+    private static final String ATTR_SCRIPT_RESOLVER = SlingServletResolver.class.getName() + ".scriptResolver";
+
     /** Servlet resolver logger */
     public static final Logger LOGGER = LoggerFactory.getLogger(SlingServletResolver.class);
 
@@ -131,7 +152,16 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
 
     private AtomicReference<ResourceResolver> sharedScriptResolver = new AtomicReference<>();
 
-    private final ThreadLocal<ResourceResolver> perThreadScriptResolver = new ThreadLocal<>();
+    // the change generation of the resolution cache the shared script resolver has been refreshed for
+    private final AtomicLong sharedScriptResolverGeneration = new AtomicLong();
+
+    // resolutions with the shared script resolver hold the read lock, a refresh the write lock
+    private final ReentrantReadWriteLock sharedScriptResolverLock = new ReentrantReadWriteLock();
+
+    // the pool of per thread resource resolvers, null if pooling is disabled
+    private volatile ScriptResolverPool scriptResolverPool;
+
+    private volatile ServiceRegistration<ScriptResolverPoolMBean> poolMBeanRegistration;
 
     @Reference(policy = ReferencePolicy.DYNAMIC, cardinality = ReferenceCardinality.OPTIONAL)
     private volatile IgnoredServletResourcePredicate ignoredResourcePredicate;
@@ -175,11 +205,11 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
             LOGGER.debug("resolveServlet called for resource {}", resource);
         }
 
-        final ResourceResolver scriptResolver = this.getScriptResourceResolver();
         Servlet servlet = null;
 
         if (resourceType.length() > 0) {
-            servlet = resolveServletInternal(request, null, resourceType, scriptResolver);
+            // the script resolver is only acquired if the resolution is not cached
+            servlet = resolveServletInternal(request, null, resourceType, getRequestScriptResolver(request));
         }
 
         // last resort, use the default servlet
@@ -210,8 +240,7 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
             LOGGER.debug("resolveServlet called for resource {} with script name {}", resource, scriptName);
         }
 
-        final ResourceResolver scriptResolver = this.getScriptResourceResolver();
-        final Servlet servlet = resolveServletInternal(null, resource, scriptName, scriptResolver);
+        final Servlet servlet = resolveServletInternal(null, resource, scriptName, null);
 
         // log the servlet found
         if (LOGGER.isDebugEnabled()) {
@@ -238,8 +267,7 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
             LOGGER.debug("resolveServlet called for for script name {}", scriptName);
         }
 
-        final ResourceResolver scriptResolver = this.getScriptResourceResolver();
-        final Servlet servlet = resolveServletInternal(null, (Resource) null, scriptName, scriptResolver);
+        final Servlet servlet = resolveServletInternal(null, (Resource) null, scriptName, null);
 
         // log the servlet found
         if (LOGGER.isDebugEnabled()) {
@@ -256,22 +284,65 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
     /**
      * Get the servlet for the resource.
      */
-    private Servlet getServlet(final Resource scriptResource) {
+    private Servlet getServlet(final Resource scriptResource, final RequestScriptResolver requestResolver) {
         // no resource -> no servlet
         if (scriptResource == null) {
             return null;
         }
+        return this.toScriptResource(scriptResource, requestResolver).adaptTo(Servlet.class);
+    }
+
+    /**
+     * Get the resource to adapt to a servlet.
+     * @param scriptResource The resource found
+     * @param requestResolver The script resolver of the request using the servlet, {@code null} if
+     *            the servlet is not bound to a request
+     */
+    private Resource toScriptResource(final Resource scriptResource, final RequestScriptResolver requestResolver) {
         // if resource is fetched using shared resource resolver
         // or resource is a servlet resource, just adapt to servlet
-        if (scriptResource.getResourceResolver() == this.sharedScriptResolver
+        if (scriptResource.getResourceResolver() == this.sharedScriptResolver.get()
                 || "sling/bundle/resource".equals(scriptResource.getResourceSuperType())) {
-            return scriptResource.adaptTo(Servlet.class);
+            return scriptResource;
         }
         // return a resource wrapper to make sure the implementation
-        // switches from the per thread resource resolver to the shared once
-        // the per thread resource resolver is closed
-        return new ScriptResource(scriptResource, perThreadScriptResolver::get, this.sharedScriptResolver.get())
-                .adaptTo(Servlet.class);
+        // switches from the per request resource resolver to the shared once
+        // the per request resource resolver is released
+        return new ScriptResource(
+                scriptResource,
+                requestResolver != null ? requestResolver : () -> null,
+                this.sharedScriptResolver.get(),
+                this::getRefreshGeneration);
+    }
+
+    /**
+     * Get the change generation a script resolver has last been refreshed for
+     */
+    private long getRefreshGeneration(final ResourceResolver resolver) {
+        if (resolver == this.sharedScriptResolver.get()) {
+            return this.sharedScriptResolverGeneration.get();
+        }
+        // clones which are not pooled are never refreshed
+        final ScriptResolverPool pool = this.scriptResolverPool;
+        return pool != null ? pool.getRefreshGeneration(resolver) : ScriptResolverPool.NOT_POOLED;
+    }
+
+    /**
+     * Get the servlet of a cached candidate for a request. The cached servlet of a script is
+     * shared by all requests and reads the script with the shared resolver, so the script is
+     * adapted again from a script resource reading it with the script resolver of the request.
+     * @param candidate The cached candidate
+     * @param script The script resource the candidate has been adapted from, might be {@code null}
+     * @param requestResolver The script resolver of the request, might be {@code null}
+     * @return The servlet for the request
+     */
+    private Servlet bindToRequest(
+            final Servlet candidate, final Resource script, final RequestScriptResolver requestResolver) {
+        if (requestResolver == null || !(script instanceof ScriptResource scriptResource)) {
+            return candidate;
+        }
+        final Servlet servlet = scriptResource.forRequest(requestResolver).adaptTo(Servlet.class);
+        return servlet != null ? servlet : candidate;
     }
 
     // ---------- ErrorHandler interface --------------------------------------
@@ -295,21 +366,16 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
         String timerName = "handleError:status=" + status;
         progressTracker.startTimer(timerName);
 
-        final ResourceResolver scriptResolver = this.getScriptResourceResolver();
+        final RequestScriptResolver scriptResolver = getRequestScriptResolver(request);
         try {
             // find the error handler component
             Resource resource = getErrorResource(request);
 
             // find a servlet for the status as the method name
             String extension = request.getRequestPathInfo().getExtension();
-            ResourceCollector locationUtil = new ResourceCollector(
-                    String.valueOf(status),
-                    DEFAULT_ERROR_HANDLER_RESOURCE_TYPE,
-                    resource,
-                    extension,
-                    this.executionPaths.get(),
-                    this.useResourceCaching);
-            Servlet servlet = getServletInternal(locationUtil, request, scriptResolver);
+            final ResolutionKey key = ResolutionKey.forMethod(
+                    String.valueOf(status), DEFAULT_ERROR_HANDLER_RESOURCE_TYPE, resource, extension);
+            Servlet servlet = getServletInternal(key, request, scriptResolver);
 
             // fall back to default servlet if none
             if (servlet == null) {
@@ -358,7 +424,7 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
         String timerName = "handleError:throwable=" + throwable.getClass().getName();
         progressTracker.startTimer(timerName);
 
-        final ResourceResolver scriptResolver = this.getScriptResourceResolver();
+        final RequestScriptResolver scriptResolver = getRequestScriptResolver(request);
         try {
             // find the error handler component
             Servlet servlet = null;
@@ -368,14 +434,9 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
             while (servlet == null && tClass != Object.class) {
                 // find a servlet for the simple class name as the method name
                 String extension = request.getRequestPathInfo().getExtension();
-                ResourceCollector locationUtil = new ResourceCollector(
-                        tClass.getSimpleName(),
-                        DEFAULT_ERROR_HANDLER_RESOURCE_TYPE,
-                        resource,
-                        extension,
-                        this.executionPaths.get(),
-                        this.useResourceCaching);
-                servlet = getServletInternal(locationUtil, request, scriptResolver);
+                final ResolutionKey key = ResolutionKey.forMethod(
+                        tClass.getSimpleName(), DEFAULT_ERROR_HANDLER_RESOURCE_TYPE, resource, extension);
+                servlet = getServletInternal(key, request, scriptResolver);
 
                 // go to the base class
                 tClass = tClass.getSuperclass();
@@ -405,34 +466,154 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
 
     // ---------- internal helper ---------------------------------------------
 
-    private ResourceResolver getScriptResourceResolver() {
-        ResourceResolver scriptResolver = this.perThreadScriptResolver.get();
-        if (scriptResolver == null) {
-            // no per thread, let's use the shared one
-            synchronized (this.sharedScriptResolver) {
-                // invalidate all caches and refresh to see the latest updates
-                invalidateCache(this.sharedScriptResolver.get());
-                this.sharedScriptResolver.get().refresh();
+    /**
+     * Read scripts with the resource resolver of the request or, if there is none, with the shared one.
+     * The shared resource resolver is not refreshed while the action is using it.
+     * @param requestResolver The script resolver of the current request, might be {@code null}
+     * @param action The action reading the scripts
+     * @return The result of the action
+     */
+    private <T> T withScriptResourceResolver(
+            final RequestScriptResolver requestResolver, final Function<ResourceResolver, T> action) {
+        final ResourceResolver scriptResolver = requestResolver != null ? requestResolver.get() : null;
+        if (scriptResolver != null) {
+            return action.apply(scriptResolver);
+        }
+        // no per request, let's use the shared one
+        this.refreshSharedScriptResolver();
+        final Lock readLock = this.sharedScriptResolverLock.readLock();
+        readLock.lock();
+        try {
+            return action.apply(this.sharedScriptResolver.get());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Refresh the shared script resolver if a relevant change arrived since the last refresh. The
+     * refresh waits for the resolutions using the shared script resolver, resolutions starting in
+     * the meantime wait for the refresh.
+     */
+    private void refreshSharedScriptResolver() {
+        if (this.sharedScriptResolverGeneration.get() == this.resolutionCache.getChangeGeneration()
+                // a nested resolution can't wait for the outer one
+                || this.sharedScriptResolverLock.getReadHoldCount() > 0) {
+            return;
+        }
+        final Lock writeLock = this.sharedScriptResolverLock.writeLock();
+        writeLock.lock();
+        try {
+            final long currentGeneration = this.resolutionCache.getChangeGeneration();
+            if (this.sharedScriptResolverGeneration.get() != currentGeneration) {
+                // refresh first to see the latest updates, then drop what has been cached before
+                final ResourceResolver sharedResolver = this.sharedScriptResolver.get();
+                sharedResolver.refresh();
+                invalidateCache(sharedResolver);
+                this.sharedScriptResolverGeneration.set(currentGeneration);
             }
-            scriptResolver = this.sharedScriptResolver.get();
+        } finally {
+            writeLock.unlock();
         }
-        return scriptResolver;
+    }
+
+    /**
+     * Get the script resolver handle of a request
+     * @param request The request, might be {@code null}
+     * @return The handle or {@code null} if the request has not been initialized by {@link #onEvent(SlingJakartaRequestEvent)}
+     */
+    private static RequestScriptResolver getRequestScriptResolver(final ServletRequest request) {
+        final Object handle = request != null ? request.getAttribute(ATTR_SCRIPT_RESOLVER) : null;
+        return handle instanceof RequestScriptResolver ? (RequestScriptResolver) handle : null;
     }
 
     @Override
     public void onEvent(final SlingJakartaRequestEvent event) {
+        final ServletRequest request = event.getServletRequest();
+        if (request == null) {
+            return;
+        }
         if (event.getType() == SlingJakartaRequestEvent.EventType.EVENT_INIT) {
-            try {
-                ResourceResolver clone = this.sharedScriptResolver.get().clone(null);
-                this.perThreadScriptResolver.set(clone);
-            } catch (final LoginException e) {
-                LOGGER.error("Unable to create new script resolver clone", e);
+            if (getRequestScriptResolver(request) == null) {
+                request.setAttribute(ATTR_SCRIPT_RESOLVER, new RequestScriptResolver());
             }
         } else if (event.getType() == SlingJakartaRequestEvent.EventType.EVENT_DESTROY) {
-            final ResourceResolver resolver = this.perThreadScriptResolver.get();
-            if (resolver != null) {
-                this.perThreadScriptResolver.remove();
-                resolver.close();
+            final RequestScriptResolver handle = getRequestScriptResolver(request);
+            if (handle != null) {
+                request.removeAttribute(ATTR_SCRIPT_RESOLVER);
+                handle.release();
+            }
+        }
+    }
+
+    /**
+     * Acquire a script resolver for a request, either from the pool or as a clone of the shared one
+     * @return The resolver or {@code null} if it can't be created
+     */
+    private ResourceResolver acquireScriptResolver() {
+        try {
+            final ScriptResolverPool pool = this.scriptResolverPool;
+            return pool != null
+                    ? pool.checkout()
+                    : this.sharedScriptResolver.get().clone(null);
+        } catch (final LoginException e) {
+            LOGGER.error("Unable to create new script resolver clone", e);
+            return null;
+        }
+    }
+
+    private void releaseScriptResolver(final ResourceResolver resolver) {
+        final ScriptResolverPool pool = this.scriptResolverPool;
+        if (pool != null) {
+            pool.checkin(resolver);
+        } else {
+            resolver.close();
+        }
+    }
+
+    /**
+     * The script resource resolver of a request, acquired on first use and released
+     * when the request is destroyed. The handle is kept as a request attribute, so it
+     * does not depend on the thread processing the request and might be used by
+     * several threads at once.
+     */
+    private final class RequestScriptResolver implements Supplier<ResourceResolver> {
+
+        private final AtomicReference<ResourceResolver> resolver = new AtomicReference<>();
+
+        /** Set once the request is destroyed or the resolver can't be acquired */
+        private volatile boolean closed;
+
+        /**
+         * Get the resolver, acquiring it on first use
+         * @return The resolver or {@code null} if it is released or can't be acquired
+         */
+        @Override
+        public ResourceResolver get() {
+            final ResourceResolver current = this.resolver.get();
+            if (current != null || this.closed) {
+                return this.closed ? null : current;
+            }
+            final ResourceResolver acquired = acquireScriptResolver();
+            if (acquired == null) {
+                this.closed = true;
+                return null;
+            }
+            if (!this.resolver.compareAndSet(null, acquired)) {
+                // another thread has been faster
+                releaseScriptResolver(acquired);
+            } else if (this.closed && this.resolver.compareAndSet(acquired, null)) {
+                // released in the meantime
+                releaseScriptResolver(acquired);
+            }
+            return this.closed ? null : this.resolver.get();
+        }
+
+        void release() {
+            this.closed = true;
+            final ResourceResolver current = this.resolver.getAndSet(null);
+            if (current != null) {
+                releaseScriptResolver(current);
             }
         }
     }
@@ -466,13 +647,14 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
 
     /**
      * Resolve an appropriate servlet for a given request and resource type
-     * using the provided ResourceResolver
+     * using the provided ResourceResolver. The ResourceResolver is only
+     * requested if the repository needs to be accessed.
      */
     private Servlet resolveServletInternal(
             final SlingJakartaHttpServletRequest request,
             final Resource resource,
             final String scriptNameOrResourceType,
-            final ResourceResolver resolver) {
+            final RequestScriptResolver requestResolver) {
         Servlet servlet = null;
 
         if (isInvalidPath(scriptNameOrResourceType)) {
@@ -490,9 +672,11 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
         if (scriptNameOrResourceType.charAt(0) == '/') {
             final String scriptPath = ResourceUtil.normalize(scriptNameOrResourceType);
             if (scriptPath != null && isPathAllowed(scriptPath, this.executionPaths.get())) {
-                final Resource res =
-                        AbstractResourceCollector.getResourceOrNull(resolver, scriptPath, useResourceCaching);
-                servlet = ignoreResource(res) ? null : this.getServlet(res);
+                servlet = this.withScriptResourceResolver(requestResolver, resolver -> {
+                    final Resource res =
+                            AbstractResourceCollector.getResourceOrNull(resolver, scriptPath, useResourceCaching);
+                    return ignoreResource(res) ? null : this.getServlet(res, requestResolver);
+                });
                 if (servlet != null && !pathBasedServletAcceptor.accept(request, servlet)) {
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug(
@@ -518,15 +702,13 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
         }
         if (servlet == null) {
             // the resource type is not absolute, so lets go for the deep search
-            final AbstractResourceCollector locationUtil;
+            final ResolutionKey key;
             if (request != null) {
-                locationUtil = ResourceCollector.create(
-                        request, this.executionPaths.get(), this.defaultExtensions.get(), this.useResourceCaching);
+                key = ResolutionKey.forRequest(request, this.defaultExtensions.get());
             } else {
-                locationUtil = NamedScriptResourceCollector.create(
-                        scriptNameOrResourceType, resource, this.executionPaths.get(), this.useResourceCaching);
+                key = ResolutionKey.forScript(scriptNameOrResourceType, resource);
             }
-            servlet = getServletInternal(locationUtil, request, resolver);
+            servlet = getServletInternal(key, request, requestResolver);
 
             if (servlet != null && LOGGER.isDebugEnabled()) {
                 LOGGER.debug("getServletInternal returns servlet {}", RequestUtil.getServletName(servlet));
@@ -537,78 +719,198 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
 
     /**
      * Returns a servlet suitable for handling a request. The
-     * <code>locationUtil</code> is used find any servlets or scripts usable for
+     * <code>key</code> is used find any servlets or scripts usable for
      * the request. Each servlet returned is in turn asked whether it is
      * actually willing to handle the request in case the servlet is an
      * <code>OptingServlet</code>. The first servlet willing to handle the
      * request is used.
      *
-     * @param locationUtil The helper used to find appropriate servlets ordered
-     *            by matching priority.
+     * @param key The key of the resolution, the helper used to find appropriate
+     *            servlets ordered by matching priority is only created from it if
+     *            the resolution is not cached.
      * @param request The request used to give to any <code>OptingServlet</code>
      *            for them to decide on whether they are willing to handle the
      *            request
-     * @param resolver The <code>ResourceResolver</code> used for resolving the servlets.
+     * @param requestResolver The script resolver of the request, might be <code>null</code>. It is only
+     *            used if the resolution is not cached.
      * @return a servlet for handling the request or <code>null</code> if no
      *         such servlet willing to handle the request could be found.
      */
     private Servlet getServletInternal(
-            final AbstractResourceCollector locationUtil,
+            final ResolutionKey key,
             final SlingJakartaHttpServletRequest request,
-            final ResourceResolver resolver) {
+            final RequestScriptResolver requestResolver) {
         // use local variable to avoid race condition with activate
         final ResolutionCache localCache = this.resolutionCache;
-        final Servlet scriptServlet = localCache.get(locationUtil);
-        if (scriptServlet != null) {
+        final CachedResolution resolution = localCache.resolve(
+                key,
+                () -> this.withScriptResourceResolver(
+                        requestResolver,
+                        resolver -> this.computeResolution(key, resolver, localCache.getScriptExtensionRanks())),
+                () -> this.revalidateResolution(key, localCache.getScriptExtensionRanks()));
+
+        final List<Servlet> candidates = resolution.getCandidates();
+        for (int i = 0; i < candidates.size(); i++) {
+            final Servlet candidate = candidates.get(i);
+            if (resolution.accepts(i, request)) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Using servlet {}", RequestUtil.getServletName(candidate));
+                }
+                return this.bindToRequest(candidate, resolution.getScript(i), requestResolver);
+            }
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Using cached servlet {}", RequestUtil.getServletName(scriptServlet));
+                LOGGER.debug("Servlet {} does not accept request, ignored", RequestUtil.getServletName(candidate));
+            }
+        }
+
+        // exhausted all candidates, we don't have a servlet
+        return null;
+    }
+
+    /**
+     * Compute the resolutions for the keys of a cache snapshot, using a clone of the shared script resolver.
+     */
+    private void warmUpCache(final List<ResolutionKey> keys) {
+        final ResourceResolver sharedResolver = this.sharedScriptResolver.get();
+        if (sharedResolver == null) {
+            return;
+        }
+        final ResolutionCache localCache = this.resolutionCache;
+        int count = 0;
+        try (final ResourceResolver resolver = sharedResolver.clone(null)) {
+            for (final ResolutionKey snapshotKey : keys) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                // recreate the key as the default extensions might have changed
+                final ResolutionKey key = ResolutionKey.forRequest(
+                        snapshotKey.getName(),
+                        snapshotKey.getExtension(),
+                        snapshotKey.getSelectorString(),
+                        snapshotKey.getResourceType(),
+                        snapshotKey.getResourceSuperType(),
+                        this.defaultExtensions.get());
+                localCache.resolve(
+                        key,
+                        () -> this.computeResolution(key, resolver, localCache.getScriptExtensionRanks()),
+                        () -> null);
+                count++;
             }
-            return scriptServlet;
+        } catch (final LoginException e) {
+            LOGGER.warn("Unable to create script resolver for cache warm-up", e);
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Cache warm-up failed", e);
         }
+        LOGGER.info("Warmed up servlet resolution cache with {} resolutions", count);
+    }
 
-        final Collection<Resource> candidates =
-                locationUtil.getServlets(resolver, localCache.getScriptEngineExtensions());
-        candidates.removeIf(r -> ignoreResource(r));
+    /**
+     * Compute a resolution outside of a request, using a clone of the shared script resolver.
+     */
+    private CachedResolution revalidateResolution(
+            final ResolutionKey key, final ScriptExtensionRanks scriptExtensionRanks) {
+        final ResourceResolver sharedResolver = this.sharedScriptResolver.get();
+        if (sharedResolver == null) {
+            return null;
+        }
+        try (final ResourceResolver resolver = sharedResolver.clone(null)) {
+            return this.computeResolution(key, resolver, scriptExtensionRanks);
+        } catch (final LoginException e) {
+            LOGGER.warn("Unable to create script resolver for revalidation", e);
+            return null;
+        }
+    }
+
+    /**
+     * Create the helper finding the servlets and scripts for a resolution
+     */
+    private AbstractResourceCollector createResourceCollector(final ResolutionKey key) {
+        switch (key.getKind()) {
+            case REQUEST:
+                return ResourceCollector.create(
+                        key.getResourceType(),
+                        key.getResourceSuperType(),
+                        key.getExtension(),
+                        this.executionPaths.get(),
+                        key.isDefaultExtension(),
+                        key.getName(),
+                        key.getSelectors(),
+                        this.useResourceCaching);
+            case SCRIPT:
+                return new NamedScriptResourceCollector(
+                        key.getBaseResourceType(),
+                        key.getResourceType(),
+                        key.getResourceSuperType(),
+                        key.getName(),
+                        key.getExtension(),
+                        this.executionPaths.get(),
+                        this.useResourceCaching);
+            default:
+                return new ResourceCollector(
+                        key.getName(),
+                        key.getBaseResourceType(),
+                        key.getResourceType(),
+                        key.getResourceSuperType(),
+                        key.getExtension(),
+                        this.executionPaths.get(),
+                        this.useResourceCaching);
+        }
+    }
+
+    /**
+     * Search the servlet candidates for a resolution. The candidates are adapted to
+     * servlets up to the first one which is not an opting servlet, the candidates
+     * after that one can never be used. The candidates are found best first, so the
+     * locations which can't contain a better candidate than that one are not read.
+     */
+    private CachedResolution computeResolution(
+            final ResolutionKey key, final ResourceResolver resolver, final ScriptExtensionRanks scriptExtensionRanks) {
+        final AbstractResourceCollector locationUtil = this.createResourceCollector(key);
+        Iterable<Resource> candidates = locationUtil.findServlets(
+                resolver,
+                scriptExtensionRanks,
+                this.resolutionCache.getResourceTypeHierarchy(),
+                this.resolutionCache.getScriptTreeIndex());
 
         if (LOGGER.isDebugEnabled()) {
-            if (candidates.isEmpty()) {
+            // read all candidates for logging, otherwise they are only read until a servlet is found
+            final List<Resource> all = new ArrayList<>();
+            candidates.forEach(all::add);
+            all.removeIf(r -> ignoreResource(r));
+            if (all.isEmpty()) {
                 LOGGER.debug("No servlet candidates found");
             } else {
                 LOGGER.debug("Ordered list of servlet candidates follows");
-                for (Resource candidateResource : candidates) {
+                for (Resource candidateResource : all) {
                     LOGGER.debug("Servlet candidate: {}", candidateResource.getPath());
                 }
             }
+            candidates = all;
         }
 
-        boolean hasOptingServlet = false;
+        final List<Servlet> servlets = new ArrayList<>();
+        final List<Resource> scripts = new ArrayList<>();
+        final Set<String> dependencies = new HashSet<>(locationUtil.getLocationPaths());
         for (final Resource candidateResource : candidates) {
-            LOGGER.debug(
-                    "Checking if candidate resource {} adapts to servlet and accepts request",
-                    candidateResource.getPath());
-            Servlet candidate = this.getServlet(candidateResource);
+            if (ignoreResource(candidateResource)) {
+                continue;
+            }
+            dependencies.add(candidateResource.getPath());
+            LOGGER.debug("Checking if candidate resource {} adapts to servlet", candidateResource.getPath());
+            // the cached servlet is not bound to a request, see bindToRequest
+            final Resource script = this.toScriptResource(candidateResource, null);
+            final Servlet candidate = script.adaptTo(Servlet.class);
             if (candidate != null) {
-                final boolean isOptingServlet = candidate instanceof JakartaOptingServlet;
-                boolean servletAcceptsRequest =
-                        !isOptingServlet || (request != null && ((JakartaOptingServlet) candidate).accepts(request));
-                if (servletAcceptsRequest) {
-                    if (!hasOptingServlet && !isOptingServlet) {
-                        localCache.put(locationUtil, candidate);
-                    }
-                    LOGGER.debug("Using servlet provided by candidate resource {}", candidateResource.getPath());
-                    return candidate;
+                servlets.add(candidate);
+                scripts.add(script instanceof ScriptResource ? script : null);
+                if (!(candidate instanceof JakartaOptingServlet)) {
+                    break;
                 }
-                if (isOptingServlet) {
-                    hasOptingServlet = true;
-                }
-                LOGGER.debug("Candidate {} does not accept request, ignored", candidateResource.getPath());
             } else {
                 LOGGER.debug("Candidate {} does not adapt to a servlet, ignored", candidateResource.getPath());
             }
         }
-
-        // exhausted all candidates, we don't have a servlet
-        return null;
+        return new CachedResolution(servlets, scripts, dependencies);
     }
 
     /**
@@ -645,19 +947,19 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
      * is used as a final fallback.
      */
     private Servlet getDefaultErrorServlet(
-            final SlingJakartaHttpServletRequest request, final Resource resource, final ResourceResolver resolver) {
+            final SlingJakartaHttpServletRequest request,
+            final Resource resource,
+            final RequestScriptResolver requestResolver) {
 
         // find a default error handler according to the resource type
         // tree of the given resource
         String extension = request.getRequestPathInfo().getExtension();
-        final ResourceCollector locationUtil = new ResourceCollector(
+        final ResolutionKey key = ResolutionKey.forMethod(
                 ServletResolverConstants.DEFAULT_ERROR_HANDLER_METHOD,
                 DEFAULT_ERROR_HANDLER_RESOURCE_TYPE,
                 resource,
-                extension,
-                this.executionPaths.get(),
-                this.useResourceCaching);
-        final Servlet servlet = getServletInternal(locationUtil, request, resolver);
+                extension);
+        final Servlet servlet = getServletInternal(key, request, requestResolver);
         if (servlet != null) {
             return servlet;
         }
@@ -727,6 +1029,9 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
     // ---------- SCR Integration ----------------------------------------------
 
     private ServiceTracker<MergingServletResourceProvider, MergingServletResourceProvider> tracker;
+
+    private volatile Thread warmUpThread;
+
     /**
      * Activate this component.
      */
@@ -738,13 +1043,43 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
                 resourceResolverFactory.getServiceResourceResolver(
                         Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, (Object) SERVICE_USER)),
                 this.tracker::getService));
+        // the new resolver sees the latest updates
+        this.sharedScriptResolverGeneration.set(this.resolutionCache.getChangeGeneration());
 
         this.executionPaths.set(getExecutionPaths(config.servletresolver_paths()));
         this.defaultExtensions.set(Arrays.asList(config.servletresolver_defaultExtensions()));
         this.useResourceCaching = config.enable_resource_caching();
 
+        if (config.servletresolver_scriptResolverPoolSize() > 0) {
+            final ScriptResolverPool pool = new ScriptResolverPool(
+                    this.sharedScriptResolver.get(),
+                    config.servletresolver_scriptResolverPoolSize(),
+                    config.servletresolver_scriptResolverPoolMaxWait(),
+                    this::invalidateCache,
+                    () -> this.resolutionCache.getChangeGeneration());
+            this.scriptResolverPool = pool;
+            try {
+                final Dictionary<String, String> mbeanProps = new Hashtable<>(); // NOSONAR
+                mbeanProps.put("jmx.objectname", "org.apache.sling:type=servletResolver,service=ScriptResolverPool");
+                this.poolMBeanRegistration =
+                        context.registerService(ScriptResolverPoolMBean.class, pool.createMBean(), mbeanProps);
+            } catch (final Throwable t) { // NOSONAR
+                LOGGER.warn("Unable to register script resolver pool MBean", t);
+            }
+        }
+
         // setup default servlet
         this.getDefaultServlet();
+
+        // warm up the cache with the resolutions used before the last restart
+        final List<ResolutionKey> keys = this.resolutionCache.getSnapshotKeys();
+        if (!keys.isEmpty()) {
+            final Thread thread =
+                    new Thread(() -> this.warmUpCache(keys), "Apache Sling Servlet Resolver Cache Warm-up");
+            thread.setDaemon(true);
+            this.warmUpThread = thread;
+            thread.start();
+        }
     }
 
     @Modified
@@ -758,8 +1093,15 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
      */
     @Deactivate
     protected void deactivate() {
+        final Thread thread = this.warmUpThread;
+        if (thread != null) {
+            this.warmUpThread = null;
+            thread.interrupt();
+        }
         this.tracker.close();
-        this.resolutionCache.flushCache();
+        // keep the keys of the cached resolutions for the next start
+        this.resolutionCache.writeSnapshot();
+        this.resolutionCache.flushCache(FlushCause.LIFECYCLE);
         // destroy the fallback error handler servlet
         Servlet servlet = fallbackErrorServlet.get();
         if (servlet != null) {
@@ -772,6 +1114,21 @@ public class SlingServletResolver implements ServletResolver, SlingJakartaReques
             }
         }
 
+        final ServiceRegistration<ScriptResolverPoolMBean> registration = this.poolMBeanRegistration;
+        if (registration != null) {
+            this.poolMBeanRegistration = null;
+            try {
+                registration.unregister();
+            } catch (final IllegalStateException ise) {
+                // ignore
+            }
+        }
+        final ScriptResolverPool pool = this.scriptResolverPool;
+        if (pool != null) {
+            this.scriptResolverPool = null;
+            pool.close();
+        }
+
         if (this.sharedScriptResolver != null) {
             ResourceResolver rr = this.sharedScriptResolver.get();
             if (rr != null) {
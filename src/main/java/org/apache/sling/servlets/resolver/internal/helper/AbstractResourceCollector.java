@@ -20,18 +20,17 @@ package org.apache.sling.servlets.resolver.internal.helper;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.SyntheticResource;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -51,6 +50,12 @@ public abstract class AbstractResourceCollector {
 
     protected static final String CACHE_KEY_RESOURCES = AbstractResourceCollector.class.getName() + ".resources";
 
+    /** Marks a path without a resource in the resource cache, which can't hold {@code null} values */
+    private static final Object NO_RESOURCE = new Object();
+
+    /** Guards the creation of the caches in the property maps of the resolvers */
+    private static final Lock CACHE_INIT_LOCK = new ReentrantLock();
+
     // the most generic resource type to use. This may be null in which
     // case the default servlet name will be used as the base name
     protected final String baseResourceType;
@@ -68,6 +73,15 @@ public abstract class AbstractResourceCollector {
 
     protected boolean useResourceCaching;
 
+    // the paths of the locations searched by the last call to getServlets
+    private volatile List<String> locationPaths = Collections.emptyList();
+
+    // the script extension ranks used by the current call to getServlets
+    private ScriptExtensionRanks scriptExtensionRanks = ScriptExtensionRanks.EMPTY;
+
+    // the index of the script folders used by the current call to getServlets, might be null
+    private ScriptTreeIndex scriptTreeIndex;
+
     protected AbstractResourceCollector(
             final String baseResourceType,
             final String resourceType,
@@ -81,72 +95,254 @@ public abstract class AbstractResourceCollector {
         this.extension = extension;
         this.executionPaths = executionPaths;
         this.useResourceCaching = useResourceCaching;
+        int result = Objects.hashCode(baseResourceType);
+        result = 31 * result + Objects.hashCode(resourceType);
+        result = 31 * result + Objects.hashCode(resourceSuperType);
+        result = 31 * result + Objects.hashCode(extension);
+        this.hashCode = result;
     }
 
     public final Collection<Resource> getServlets(
             final ResourceResolver resolver, final List<String> scriptExtensions) {
+        return this.getServlets(resolver, ScriptExtensionRanks.of(scriptExtensions));
+    }
 
-        final SortedSet<WeightedResource> resources = new TreeSet<>((o1, o2) -> {
-            String o1Parent = ResourceUtil.getParent(o1.getPath());
-            String o2Parent = ResourceUtil.getParent(o2.getPath());
-            if (o1Parent != null && o2Parent != null && o1Parent.equals(o2Parent)) {
-                String o1ScriptName = o1.getName();
-                String o2ScriptName = o2.getName();
-                String o1Extension = getScriptExtension(o1ScriptName);
-                String o2Extension = getScriptExtension(o2ScriptName);
-                if (o1Extension != null && o2Extension != null && !o1Extension.isEmpty() && !o2Extension.isEmpty()) {
-                    String o1ScriptWithoutExtension =
-                            o1ScriptName.substring(0, o1ScriptName.lastIndexOf("." + o1Extension));
-                    String o2ScriptWithoutExtension =
-                            o2ScriptName.substring(0, o2ScriptName.lastIndexOf("." + o2Extension));
-                    if (o1ScriptWithoutExtension.equals(o2ScriptWithoutExtension)) {
-                        int o1ExtensionIndex = scriptExtensions.indexOf(o1Extension);
-                        int o2ExtensionIndex = scriptExtensions.indexOf(o2Extension);
-                        if (o1ExtensionIndex == o2ExtensionIndex || o1ExtensionIndex == -1 || o2ExtensionIndex == -1) {
-                            return o1.compareTo(o2);
-                        } else if (o1ExtensionIndex > o2ExtensionIndex) {
-                            return -1;
-                        } else {
-                            return 1;
-                        }
-                    }
-                }
-            }
-            return o1.compareTo(o2);
-        });
+    public final Collection<Resource> getServlets(
+            final ResourceResolver resolver, final ScriptExtensionRanks scriptExtensionRanks) {
+        return this.getServlets(resolver, scriptExtensionRanks, null, null);
+    }
 
+    /**
+     * Find the servlets and scripts
+     * @param resolver The resolver to read the scripts with
+     * @param scriptExtensionRanks The ranks of the script engine extensions
+     * @param hierarchy The global index of the resource type hierarchy, might be {@code null}
+     * @param scriptTreeIndex The global index of the script folders, might be {@code null}
+     * @return The ordered servlets and scripts
+     */
+    public final Collection<Resource> getServlets(
+            final ResourceResolver resolver,
+            final ScriptExtensionRanks scriptExtensionRanks,
+            final ResourceTypeHierarchy hierarchy,
+            final ScriptTreeIndex scriptTreeIndex) {
+        final ScoredCandidates candidates =
+                this.findCandidates(resolver, scriptExtensionRanks, hierarchy, scriptTreeIndex);
+        final List<Resource> result = new ArrayList<>(candidates.size());
+        candidates.forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Find the servlets and scripts. The candidates are found while they are iterated,
+     * best first: a location is only searched while it might contain a candidate
+     * ranked before the best one found so far, and the resources of scripts are
+     * only read when they are iterated. The result can only be iterated once.
+     * @param resolver The resolver to read the scripts with
+     * @param scriptExtensionRanks The ranks of the script engine extensions
+     * @param hierarchy The global index of the resource type hierarchy, might be {@code null}
+     * @param scriptTreeIndex The global index of the script folders, might be {@code null}
+     * @return The ordered servlets and scripts
+     */
+    public final Iterable<Resource> findServlets(
+            final ResourceResolver resolver,
+            final ScriptExtensionRanks scriptExtensionRanks,
+            final ResourceTypeHierarchy hierarchy,
+            final ScriptTreeIndex scriptTreeIndex) {
+        return this.findCandidates(resolver, scriptExtensionRanks, hierarchy, scriptTreeIndex);
+    }
+
+    private ScoredCandidates findCandidates(
+            final ResourceResolver resolver,
+            final ScriptExtensionRanks scriptExtensionRanks,
+            final ResourceTypeHierarchy hierarchy,
+            final ScriptTreeIndex scriptTreeIndex) {
+        this.scriptExtensionRanks = scriptExtensionRanks;
+        this.scriptTreeIndex =
+                scriptTreeIndex != null && scriptTreeIndex.isUsableFor(resolver) ? scriptTreeIndex : null;
         List<Resource> locations = LocationCollector.getLocations(
-                resourceType, resourceSuperType, baseResourceType, resolver, this.useResourceCaching);
-        locations.forEach(locationRes -> getWeightedResources(resources, locationRes));
+                resourceType, resourceSuperType, baseResourceType, resolver, this.useResourceCaching, hierarchy);
+        final List<String> paths = new ArrayList<>(locations.size());
+        locations.forEach(locationRes -> paths.add(locationRes.getPath()));
+        // the result depends on all locations, including the ones which are never read
+        this.locationPaths = paths;
+
+        final Iterator<Resource> pending = locations.iterator();
+        return new ScoredCandidates(
+                resolver,
+                this.useResourceCaching,
+                c -> {
+                    if (!pending.hasNext()) {
+                        return false;
+                    }
+                    getWeightedResources(c, pending.next());
+                    return true;
+                },
+                this.getMaxSelectors(),
+                this.getMaxMethodPrefixWeight());
+    }
 
-        List<Resource> result = new ArrayList<>(resources.size());
-        result.addAll(resources);
-        return result;
+    /**
+     * Get the paths of the locations which have been searched by the last
+     * call to {@link #getServlets(ResourceResolver, List)}. This includes
+     * locations which do not exist (yet).
+     * @return The location paths
+     */
+    public List<String> getLocationPaths() {
+        return this.locationPaths;
     }
 
-    protected abstract void getWeightedResources(final Set<WeightedResource> resources, final Resource location);
+    /**
+     * Get the resource type this collector is searching servlets for
+     * @return The resource type
+     */
+    public String getResourceType() {
+        return this.resourceType;
+    }
+
+    /**
+     * Get the resource super type this collector is searching servlets for
+     * @return The resource super type or {@code null}
+     */
+    public String getResourceSuperType() {
+        return this.resourceSuperType;
+    }
 
     /**
-     * Creates a {@link WeightedResource} and adds it to the set of resources.
-     * The number of resources already present in the set is used as the ordinal
-     * number for the newly created resource.
+     * Get the extension this collector is searching servlets for
+     * @return The extension or {@code null}
+     */
+    public String getExtension() {
+        return this.extension;
+    }
+
+    protected abstract void getWeightedResources(final ScoredCandidates candidates, final Resource location);
+
+    /**
+     * Get the highest number of selectors a candidate found by
+     * {@link #getWeightedResources(ScoredCandidates, Resource)} can match. A later
+     * location is not searched once a candidate with this number of selectors and
+     * the highest method/prefix weight has been found.
+     * @return The number of selectors, no limit by default
+     */
+    protected int getMaxSelectors() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get the highest method/prefix weight a candidate found by
+     * {@link #getWeightedResources(ScoredCandidates, Resource)} can have.
+     * @return The weight, no limit by default
+     * @see #getMaxSelectors()
+     */
+    protected int getMaxMethodPrefixWeight() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Adds a servlet or script resource to the candidates. The number of
+     * candidates already added is used as the ordinal number of the resource.
      *
-     * @param resources The set of resource to which the
-     *            {@link WeightedResource} is added.
-     * @param resource The <code>Resource</code> on which the
-     *            {@link WeightedResource} is based.
+     * @param candidates The candidates to which the resource is added.
+     * @param resource The <code>Resource</code> to add.
      * @param numSelectors The number of request selectors which are matched by
      *            the name of the resource.
      * @param methodPrefixWeight The method/prefix weight assigned to the
      *            resource according to the resource name.
      */
     protected final void addWeightedResource(
-            final Set<WeightedResource> resources,
+            final ScoredCandidates candidates,
             final Resource resource,
             final int numSelectors,
             final int methodPrefixWeight) {
-        final WeightedResource lr = new WeightedResource(resources.size(), resource, numSelectors, methodPrefixWeight);
-        resources.add(lr);
+        candidates.add(resource, numSelectors, methodPrefixWeight);
+    }
+
+    /**
+     * Orders scripts of the same folder which only differ in their script
+     * extension by the rank of the extension, a script with a higher rank is
+     * moved before one with a lower rank. The scripts swap their positions, so
+     * scripts with an extension without a rank and all other scripts keep their
+     * position.
+     *
+     * @param scripts The scripts of one folder in the order in which they are
+     *            added; ordered in place.
+     * @param count The number of scripts in the array.
+     * @param folder The listing of the folder.
+     */
+    protected final void orderByExtensionRank(
+            final ScriptFolder.Script[] scripts, final int count, final ScriptFolder folder) {
+        final ScriptExtensionRanks ranks = this.scriptExtensionRanks;
+        if (ranks.getExtensions().isEmpty()) {
+            return;
+        }
+        boolean[] done = null;
+        for (int i = 0; i < count; i++) {
+            if ((done != null && done[i]) || folder.getScripts(scripts[i].getBaseName()).length < 2) {
+                continue;
+            }
+            if (done == null) {
+                done = new boolean[count];
+            }
+            // the positions of the scripts with the same base name and a ranked extension
+            final int[] positions = new int[count - i];
+            int ranked = 0;
+            for (int j = i; j < count; j++) {
+                if (scripts[j].getBaseName().equals(scripts[i].getBaseName())) {
+                    done[j] = true;
+                    if (getRank(ranks, scripts[j]) != ScriptExtensionRanks.NO_RANK) {
+                        positions[ranked++] = j;
+                    }
+                }
+            }
+            // insertion sort by descending rank, keeping the order for the same rank
+            for (int k = 1; k < ranked; k++) {
+                final ScriptFolder.Script script = scripts[positions[k]];
+                final int rank = getRank(ranks, script);
+                int m = k - 1;
+                while (m >= 0 && getRank(ranks, scripts[positions[m]]) < rank) {
+                    scripts[positions[m + 1]] = scripts[positions[m]];
+                    m--;
+                }
+                scripts[positions[m + 1]] = script;
+            }
+        }
+    }
+
+    private static int getRank(final ScriptExtensionRanks ranks, final ScriptFolder.Script script) {
+        final String extension = script.getExtension();
+        return extension.isEmpty() ? ScriptExtensionRanks.NO_RANK : ranks.getRank(extension);
+    }
+
+    /**
+     * Get the listing of a folder. The listing is taken from the script tree index
+     * if one is used, otherwise the children of the folder are listed.
+     *
+     * @param resolver The <code>ResourceResolver</code> used to list the folder.
+     * @param folder The resource of the folder, might be <code>null</code> if
+     *            the index is used.
+     * @param path The path of the folder.
+     * @param useCaching Whether the children are cached in the resolver if no
+     *            index is used.
+     * @return The listing of the folder.
+     */
+    protected final @NotNull ScriptFolder getScriptFolder(
+            @NotNull final ResourceResolver resolver,
+            @Nullable final Resource folder,
+            @NotNull final String path,
+            final boolean useCaching) {
+        final ScriptTreeIndex index = this.scriptTreeIndex;
+        if (index != null) {
+            return index.getFolder(resolver, path, folder);
+        }
+        return folder != null ? ScriptFolder.of(getChildrenList(folder, useCaching), true) : ScriptFolder.EMPTY;
+    }
+
+    /**
+     * Check whether the script tree index is used by the current call to
+     * {@link #getServlets(ResourceResolver, ScriptExtensionRanks, ResourceTypeHierarchy, ScriptTreeIndex)}.
+     */
+    protected final boolean isScriptTreeIndexUsed() {
+        return this.scriptTreeIndex != null;
     }
 
     /**
@@ -204,14 +400,6 @@ public abstract class AbstractResourceCollector {
         return s1.equals(s2);
     }
 
-    private String getScriptExtension(String scriptName) {
-        int lastIndexOf = scriptName.lastIndexOf('.');
-        if (lastIndexOf > -1 && lastIndexOf < scriptName.length() - 1) {
-            return scriptName.substring(lastIndexOf + 1);
-        }
-        return null;
-    }
-
     /**
      * Retrieves the list of children for a resource; if useCaching is set to true, it is
      * tried to read the result from a cache, and persist any non-cached result there as well.
@@ -227,28 +415,21 @@ public abstract class AbstractResourceCollector {
         if (useCaching) {
 
             // init the caching structure
-            Map<String, Object> cache = parent.getResourceResolver().getPropertyMap();
-            if (!cache.containsKey(CACHE_KEY_CHILDREN_LIST)) {
-                childrenListMap = new ConcurrentHashMap<>();
-                cache.put(CACHE_KEY_CHILDREN_LIST, childrenListMap);
-
+            final Object entry = getOrCreateCacheMap(parent.getResourceResolver(), CACHE_KEY_CHILDREN_LIST);
+            if (entry instanceof Map) {
+                childrenListMap = (Map<String, List<Resource>>) entry;
             } else {
-                Object entry = cache.get(CACHE_KEY_CHILDREN_LIST);
-                if (entry instanceof Map) {
-                    childrenListMap = (Map<String, List<Resource>>) cache.get(CACHE_KEY_CHILDREN_LIST);
-                } else {
-                    // unexpected type
-                    LOG.debug(
-                            "Found key '{}' used with the unexpected type '{}', not caching the resource children list",
-                            CACHE_KEY_CHILDREN_LIST,
-                            entry.getClass().getName());
-                }
+                // unexpected type
+                LOG.debug(
+                        "Found key '{}' used with the unexpected type '{}', not caching the resource children list",
+                        CACHE_KEY_CHILDREN_LIST,
+                        entry.getClass().getName());
             }
 
             // cache lookup
-            if (childrenListMap != null && childrenListMap.containsKey(parent.getPath())) {
+            final List<Resource> result = childrenListMap != null ? childrenListMap.get(parent.getPath()) : null;
+            if (result != null) {
                 // this is a cache hit
-                List<Resource> result = childrenListMap.get(parent.getPath());
                 LOG.trace("getChildrenList cache-hit for {} with {} child resources", parent.getPath(), result.size());
                 return result;
             }
@@ -278,7 +459,7 @@ public abstract class AbstractResourceCollector {
         }
         Object o2 = resolver.getPropertyMap().get(CACHE_KEY_RESOURCES);
         if (o2 instanceof Map) {
-            Map<String, Resource> resourceMap = (Map<String, Resource>) o2;
+            Map<String, Object> resourceMap = (Map<String, Object>) o2;
             resourceMap.clear();
         }
     }
@@ -292,31 +473,21 @@ public abstract class AbstractResourceCollector {
      */
     public static @Nullable Resource getResourceOrNull(
             @NotNull ResourceResolver resolver, @NotNull String path, boolean useCaching) {
-        Object o = resolver.getPropertyMap().get(CACHE_KEY_RESOURCES);
         if (useCaching) {
+            final Object o = getOrCreateCacheMap(resolver, CACHE_KEY_RESOURCES);
             if (o instanceof Map) {
-                // cache structure already initialized
                 @SuppressWarnings("unchecked")
-                final Map<String, Resource> resourceMap = (Map<String, Resource>) o;
-                if (resourceMap.containsKey(path)) {
+                final Map<String, Object> resourceMap = (Map<String, Object>) o;
+                final Object cached = resourceMap.get(path);
+                if (cached != null) {
                     // cache hit
                     LOG.trace("getResourceOrNull cache-hit for path {}", path);
-                    return resourceMap.get(path);
-                } else {
-                    // cache miss
-                    LOG.trace("getResourceOrNull cache-miss for path {}", path);
-                    final Resource resource = resolver.getResource(path);
-                    resourceMap.put(path, resource);
-                    return resource;
+                    return cached == NO_RESOURCE ? null : (Resource) cached;
                 }
-            }
-            if (o == null) {
-                // cache structure not initialized yet
-                LOG.trace("getResourceOrNull cache-miss on init for path {}", path);
-                final Map<String, Resource> resourceMap = new HashMap<>();
-                resolver.getPropertyMap().put(CACHE_KEY_RESOURCES, resourceMap);
+                // cache miss
+                LOG.trace("getResourceOrNull cache-miss for path {}", path);
                 final Resource resource = resolver.getResource(path);
-                resourceMap.put(path, resource);
+                resourceMap.put(path, resource == null ? NO_RESOURCE : resource);
                 return resource;
             }
             // key already used by someone else
@@ -328,4 +499,31 @@ public abstract class AbstractResourceCollector {
         }
         return resolver.getResource(path);
     }
+
+    /**
+     * Get the cache stored under the key in the property map of the resolver, a
+     * concurrent map is created and stored if the key is not used yet. Once created,
+     * the cache can be read and updated by concurrent threads without locking.
+     * @param resolver the resolver owning the cache
+     * @param key the key in the property map
+     * @return the cache or the object stored by someone else under the key
+     */
+    static @NotNull Object getOrCreateCacheMap(@NotNull ResourceResolver resolver, @NotNull String key) {
+        final Map<String, Object> propertyMap = resolver.getPropertyMap();
+        Object o = propertyMap.get(key);
+        if (o == null) {
+            // the property map itself is not thread-safe, so only one thread creates the cache
+            CACHE_INIT_LOCK.lock();
+            try {
+                o = propertyMap.get(key);
+                if (o == null) {
+                    o = new ConcurrentHashMap<String, Object>();
+                    propertyMap.put(key, o);
+                }
+            } finally {
+                CACHE_INIT_LOCK.unlock();
+            }
+        }
+        return o;
+    }
 }
@@ -19,11 +19,11 @@
 package org.apache.sling.servlets.resolver.internal.helper;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -58,6 +58,12 @@ public class LocationCollector {
 
     protected static final String CACHE_KEY = LocationCollector.class.getName() + ".CacheKey";
 
+    /** Marks a path without a resource in the cache, which can't hold {@code null} values */
+    private static final Resource NO_RESOURCE = new SyntheticResource(null, "/", "$none$");
+
+    /** The resource type of the synthetic resources used for locations which do not exist */
+    private static final String SYNTHETIC_LOCATION_TYPE = "$synthetic$";
+
     // The search path of the resource resolver
     private final String[] searchPath;
 
@@ -69,6 +75,9 @@ public class LocationCollector {
     private final String resourceSuperType;
     private final boolean useResourceCaching;
 
+    /** The global index of the resource type hierarchy, {@code null} if it is not used */
+    private final ResourceTypeHierarchy hierarchy;
+
     /** Set of used resource types to detect a circular resource type hierarchy. */
     private final Set<String> usedResourceTypes = new HashSet<>();
 
@@ -80,7 +89,8 @@ public class LocationCollector {
             @NotNull String baseResourceType,
             @NotNull ResourceResolver resolver,
             @NotNull Map<String, Resource> cacheMap,
-            final boolean useResourceCaching) {
+            final boolean useResourceCaching,
+            @Nullable final ResourceTypeHierarchy hierarchy) {
 
         this.resourceType = resourceType;
         this.resourceSuperType = resourceSuperType;
@@ -88,6 +98,7 @@ public class LocationCollector {
         this.resolver = resolver;
         this.cacheMap = cacheMap;
         this.useResourceCaching = useResourceCaching;
+        this.hierarchy = hierarchy;
 
         String[] tmpPath = resolver.getSearchPath();
         if (tmpPath.length == 0) {
@@ -195,6 +206,14 @@ public class LocationCollector {
     private @Nullable String getResourceSuperTypeInternal(final @NotNull String resourceType) {
         // normalize resource type to a path string
         final String rtPath = ResourceUtil.resourceTypeToPath(resourceType);
+        long version = 0;
+        if (this.hierarchy != null) {
+            final Optional<String> known = this.hierarchy.getSuperType(rtPath);
+            if (known != null) {
+                return known.orElse(null);
+            }
+            version = this.hierarchy.getVersion();
+        }
         // get the resource type resource and check its super type
         String rst = null;
         // if the path is absolute, use it directly
@@ -214,6 +233,9 @@ public class LocationCollector {
                 }
             }
         }
+        if (this.hierarchy != null) {
+            this.hierarchy.putSuperType(rtPath, rst, version);
+        }
         return rst;
     }
 
@@ -223,13 +245,13 @@ public class LocationCollector {
      * @return the resource for it or null
      */
     private @Nullable Resource resolveResource(@NotNull String path) {
-        if (useResourceCaching && cacheMap.containsKey(path)) {
-            return cacheMap.get(path);
-        } else {
-            Resource r = resolver.getResource(path);
-            cacheMap.put(path, r);
-            return r;
+        final Resource cached = useResourceCaching ? cacheMap.get(path) : null;
+        if (cached != null) {
+            return cached == NO_RESOURCE ? null : cached;
         }
+        Resource r = resolver.getResource(path);
+        cacheMap.put(path, r == null ? NO_RESOURCE : r);
+        return r;
     }
 
     // ---- static helpers ---
@@ -249,37 +271,79 @@ public class LocationCollector {
             @NotNull String baseResourceType,
             @NotNull ResourceResolver resolver,
             boolean useResourceCaching) {
+        return getLocations(resourceType, resourceSuperType, baseResourceType, resolver, useResourceCaching, null);
+    }
+
+    /**
+     * Return a list of resources, which represent potential matches for the given resourceType, resourceSuperType,
+     * considering the constraints of the baseResourceType. The super types and the existence of the locations
+     * are taken from the index of the resource type hierarchy if possible.
+     * @param resourceType
+     * @param resourceSuperType
+     * @param baseResourceType
+     * @param resolver
+     * @param hierarchy the index of the resource type hierarchy, might be {@code null}
+     * @return a list of non-null resources
+     */
+    static @NotNull List<Resource> getLocations(
+            @NotNull String resourceType,
+            @NotNull String resourceSuperType,
+            @NotNull String baseResourceType,
+            @NotNull ResourceResolver resolver,
+            boolean useResourceCaching,
+            @Nullable ResourceTypeHierarchy hierarchy) {
 
         final Map<String, Resource> cacheMap = getCacheMap(resolver);
+        final ResourceTypeHierarchy index = hierarchy != null && hierarchy.isUsableFor(resolver) ? hierarchy : null;
         final LocationCollector collector = new LocationCollector(
-                resourceType, resourceSuperType, baseResourceType, resolver, cacheMap, useResourceCaching);
+                resourceType, resourceSuperType, baseResourceType, resolver, cacheMap, useResourceCaching, index);
 
         // get the location resource, use a synthetic resource if there
         // is no real location. There may still be children at this
         // location
         return collector.getResolvedLocations().stream()
                 .map(LocationCollector::removeTrailingSlash)
-                .map(path -> getResource(resolver, path, cacheMap))
+                .map(path -> getLocation(resolver, path, cacheMap, index))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Resolve the path of a location to a resource. A location which is known
+     * not to exist is not looked up.
+     * @return a synthetic or "real" resource
+     */
+    private static @NotNull Resource getLocation(
+            final @NotNull ResourceResolver resolver,
+            final @NotNull String path,
+            final @NotNull Map<String, Resource> cacheMap,
+            final @Nullable ResourceTypeHierarchy hierarchy) {
+        if (hierarchy == null) {
+            return getResource(resolver, path, cacheMap);
+        }
+        final Boolean exists = hierarchy.exists(path);
+        if (Boolean.FALSE.equals(exists)) {
+            return new SyntheticResource(resolver, path, SYNTHETIC_LOCATION_TYPE);
+        }
+        final long version = hierarchy.getVersion();
+        final Resource res = getResource(resolver, path, cacheMap);
+        if (exists == null) {
+            final boolean synthetic =
+                    res instanceof SyntheticResource && SYNTHETIC_LOCATION_TYPE.equals(res.getResourceType());
+            hierarchy.putExists(path, !synthetic, version);
+        }
+        return res;
+    }
+
     @SuppressWarnings("unchecked")
     private static Map<String, Resource> getCacheMap(@NotNull ResourceResolver resolver) {
         Map<String, Resource> cacheMap;
-        Object c = resolver.getPropertyMap().get(CACHE_KEY);
-
-        if (c != null) {
-            if (c instanceof Map<?, ?>) {
-                cacheMap = (Map<String, Resource>) resolver.getPropertyMap().get(CACHE_KEY);
-            } else {
-                // it's of an incorrect type, so probably somebody else is using it.
-                // Just use the map for now, but do not store it as cache to the ResourceResolver
-                cacheMap = new HashMap<>();
-            }
+        final Object c = AbstractResourceCollector.getOrCreateCacheMap(resolver, CACHE_KEY);
+        if (c instanceof Map<?, ?>) {
+            cacheMap = (Map<String, Resource>) c;
         } else {
-            // this is good enough, as ResourceResolvers should be used only by a single thread anyway
-            cacheMap = Collections.synchronizedMap(new HashMap<String, Resource>());
-            resolver.getPropertyMap().put(CACHE_KEY, cacheMap);
+            // it's of an incorrect type, so probably somebody else is using it.
+            // Just use the map for now, but do not store it as cache to the ResourceResolver
+            cacheMap = new HashMap<>();
         }
         return cacheMap;
     }
@@ -294,16 +358,16 @@ public class LocationCollector {
     protected static @NotNull Resource getResource(
             final @NotNull ResourceResolver resolver, @NotNull String path, @NotNull Map<String, Resource> cacheMap) {
 
-        if (cacheMap.containsKey(path) && cacheMap.get(path) != null) {
-            return cacheMap.get(path);
-        } else {
-            Resource res = resolver.getResource(path);
-            if (res == null) {
-                res = new SyntheticResource(resolver, path, "$synthetic$");
-            }
-            cacheMap.put(path, res);
-            return res;
+        final Resource cached = cacheMap.get(path);
+        if (cached != null && cached != NO_RESOURCE) {
+            return cached;
+        }
+        Resource res = resolver.getResource(path);
+        if (res == null) {
+            res = new SyntheticResource(resolver, path, SYNTHETIC_LOCATION_TYPE);
         }
+        cacheMap.put(path, res);
+        return res;
     }
 
     /**
@@ -18,8 +18,7 @@
  */
 package org.apache.sling.servlets.resolver.internal.helper;
 
-import java.util.List;
-import java.util.Set;
+import java.util.Objects;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
@@ -83,21 +82,11 @@ public class NamedScriptResourceCollector extends AbstractResourceCollector {
             final boolean useResourceCaching) {
         super(baseResourceType, resourceType, resourceSuperType, extension, executionPaths, useResourceCaching);
         this.scriptName = scriptName;
-        // create the hash code once
-        final String key = baseResourceType
-                + ':'
-                + this.scriptName
-                + ':'
-                + this.resourceType
-                + ':'
-                + (this.resourceSuperType == null ? "" : this.resourceSuperType)
-                + ':'
-                + (this.extension == null ? "" : this.extension);
-        this.hashCode = key.hashCode();
+        this.hashCode = 31 * this.hashCode + Objects.hashCode(scriptName);
     }
 
     @Override
-    protected void getWeightedResources(final Set<WeightedResource> resources, final Resource location) {
+    protected void getWeightedResources(final ScoredCandidates candidates, final Resource location) {
         final ResourceResolver resolver = location.getResourceResolver();
         // if extension is set, we first check for an exact script match
         if (this.extension != null) {
@@ -105,7 +94,7 @@ public class NamedScriptResourceCollector extends AbstractResourceCollector {
             if (SlingServletResolver.isPathAllowed(path, this.executionPaths)) {
                 final Resource current = getResourceOrNull(resolver, path, useResourceCaching);
                 if (current != null) {
-                    this.addWeightedResource(resources, current, 0, WeightedResource.WEIGHT_EXTENSION);
+                    this.addWeightedResource(candidates, current, 0, WeightedResource.WEIGHT_EXTENSION);
                 }
             }
         }
@@ -122,30 +111,30 @@ public class NamedScriptResourceCollector extends AbstractResourceCollector {
                     resolver, location.getPath() + '/' + this.scriptName.substring(0, pos), useResourceCaching);
             name = this.scriptName.substring(pos + 1);
         }
-        final List<Resource> children = getChildrenList(current, useResourceCaching);
-        for (Resource child : children) {
-
+        final ScriptFolder folder = getScriptFolder(resolver, current, current.getPath(), useResourceCaching);
+        final ScriptFolder.Script[] scripts = folder.getScripts(name);
+        final ScriptFolder.Script[] allowed = new ScriptFolder.Script[scripts.length];
+        int count = 0;
+        for (final ScriptFolder.Script child : scripts) {
             if (SlingServletResolver.isPathAllowed(child.getPath(), this.executionPaths)) {
-                final String currentScriptName = child.getName();
-                final int lastDot = currentScriptName.lastIndexOf('.');
-                if (lastDot < 0) {
-                    // no extension in the name, this is not a script
-                    continue;
-                }
-
-                if (currentScriptName.substring(0, lastDot).equals(name)) {
-                    this.addWeightedResource(resources, child, 0, WeightedResource.WEIGHT_PREFIX);
-                }
+                allowed[count++] = child;
             }
         }
+        orderByExtensionRank(allowed, count, folder);
+        for (int i = 0; i < count; i++) {
+            candidates.add(allowed[i], 0, WeightedResource.WEIGHT_PREFIX);
+        }
+    }
+
+    @Override
+    protected int getMaxSelectors() {
+        return 0;
     }
 
     @Override
-    public int hashCode() {
-        final int prime = 31;
-        int result = super.hashCode();
-        result = prime * result + ((scriptName == null) ? 0 : scriptName.hashCode());
-        return result;
+    protected int getMaxMethodPrefixWeight() {
+        // an exact script match
+        return WeightedResource.WEIGHT_EXTENSION;
     }
 
     @Override
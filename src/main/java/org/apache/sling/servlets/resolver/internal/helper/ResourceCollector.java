@@ -18,15 +18,16 @@
  */
 package org.apache.sling.servlets.resolver.internal.helper;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
 import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.servlets.ServletResolverConstants;
 import org.apache.sling.servlets.resolver.internal.SlingServletResolver;
 import org.apache.sling.servlets.resolver.internal.resource.ServletResourceProviderFactory;
@@ -70,6 +71,12 @@ public class ResourceCollector extends AbstractResourceCollector {
 
     private final String suffExtMethod;
 
+    // the rules for the names of matching scripts, in the order in which they are checked
+    private final MatchRule[] matchRules;
+
+    // the highest method/prefix weight of the rules
+    private final int maxMethodPrefixWeight;
+
     /**
      * Creates a <code>ResourceCollector</code> for the given
      * <code>request</code>. If the request is a GET or HEAD request, a
@@ -92,7 +99,8 @@ public class ResourceCollector extends AbstractResourceCollector {
         final boolean isDefaultExtension =
                 requestPathInfo.getExtension() != null && defaultExtensions.contains(requestPathInfo.getExtension());
         return new ResourceCollector(
-                request.getResource(),
+                request.getResource().getResourceType(),
+                request.getResource().getResourceSuperType(),
                 requestPathInfo.getExtension(),
                 executionPaths,
                 isDefaultExtension,
@@ -111,7 +119,38 @@ public class ResourceCollector extends AbstractResourceCollector {
             boolean useResourceCaching) {
         final boolean isDefaultExtension = extension != null && defaultExtensions.contains(extension);
         return new ResourceCollector(
-                resource, extension, executionPaths, isDefaultExtension, methodName, selectors, useResourceCaching);
+                resource.getResourceType(),
+                resource.getResourceSuperType(),
+                extension,
+                executionPaths,
+                isDefaultExtension,
+                methodName,
+                selectors,
+                useResourceCaching);
+    }
+
+    /**
+     * Creates a <code>ResourceCollector</code> for a request to a resource
+     * with the given resource type and resource super type.
+     */
+    public static ResourceCollector create(
+            final String resourceType,
+            final String resourceSuperType,
+            final String extension,
+            final String[] executionPaths,
+            final boolean isDefaultExtension,
+            final String methodName,
+            final String[] selectors,
+            boolean useResourceCaching) {
+        return new ResourceCollector(
+                resourceType,
+                resourceSuperType,
+                extension,
+                executionPaths,
+                isDefaultExtension,
+                methodName,
+                selectors,
+                useResourceCaching);
     }
 
     /**
@@ -162,13 +201,47 @@ public class ResourceCollector extends AbstractResourceCollector {
             final String extension,
             final String[] executionPaths,
             final boolean useResourceCaching) {
-        super(
-                (baseResourceType != null ? baseResourceType : ServletResolverConstants.DEFAULT_RESOURCE_TYPE),
+        this(
+                methodName,
+                baseResourceType,
                 resource.getResourceType(),
                 resource.getResourceSuperType(),
                 extension,
                 executionPaths,
                 useResourceCaching);
+    }
+
+    /**
+     * Creates a <code>ResourceCollector</code> finding servlets and scripts for
+     * the given <code>methodName</code> and resource types.
+     *
+     * @param methodName The <code>methodName</code> used to find scripts for.
+     *            This must not be <code>null</code>.
+     * @param baseResourceType The basic resource type to use as a final
+     *            resource super type. If this is <code>null</code> the default
+     *            value
+     *            {@link org.apache.sling.servlets.resolver.internal.ServletResolverConstants#DEFAULT_SERVLET_NAME}
+     *            is assumed.
+     * @param resourceType the resource type of the resource
+     * @param resourceSuperType the resource super type of the resource
+     * @param extension the extension of the request being processed
+     * @param executionPaths the execution paths to consider
+     */
+    public ResourceCollector(
+            final String methodName,
+            final String baseResourceType,
+            final String resourceType,
+            final String resourceSuperType,
+            final String extension,
+            final String[] executionPaths,
+            final boolean useResourceCaching) {
+        super(
+                (baseResourceType != null ? baseResourceType : ServletResolverConstants.DEFAULT_RESOURCE_TYPE),
+                resourceType,
+                resourceSuperType,
+                extension,
+                executionPaths,
+                useResourceCaching);
         this.methodName = methodName;
         this.requestSelectors = new String[0];
         this.numRequestSelectors = 0;
@@ -179,12 +252,9 @@ public class ResourceCollector extends AbstractResourceCollector {
         this.suffMethod = "." + methodName;
         this.suffExtMethod = suffExt + suffMethod;
 
-        // create the hash code once
-        final String key = methodName + ':' + baseResourceType + ':'
-                + extension + "::"
-                + (this.resourceType == null ? "" : this.resourceType) + ':'
-                + (this.resourceSuperType == null ? "" : this.resourceSuperType);
-        this.hashCode = key.hashCode();
+        this.matchRules = this.compileMatchRules();
+        this.maxMethodPrefixWeight = getMaxMethodPrefixWeight(this.matchRules);
+        this.hashCode = this.computeHashCode();
     }
 
     /**
@@ -200,7 +270,8 @@ public class ResourceCollector extends AbstractResourceCollector {
      *            is assumed.
      */
     private ResourceCollector(
-            final Resource resource,
+            final String resourceType,
+            final String resourceSuperType,
             final String extension,
             final String[] executionPaths,
             final boolean isDefaultExtension,
@@ -209,8 +280,8 @@ public class ResourceCollector extends AbstractResourceCollector {
             final boolean useResourceCaching) {
         super(
                 ServletResolverConstants.DEFAULT_RESOURCE_TYPE,
-                resource.getResourceType(),
-                resource.getResourceSuperType(),
+                resourceType,
+                resourceSuperType,
                 extension,
                 executionPaths,
                 useResourceCaching);
@@ -226,26 +297,17 @@ public class ResourceCollector extends AbstractResourceCollector {
         this.isGet = "GET".equals(methodName) || "HEAD".equals(methodName);
         this.isDefaultExtension = isDefaultExtension;
 
-        // create the hash code once
-        final String key = methodName
-                + ':'
-                + baseResourceType
-                + ':'
-                + extension
-                + ':'
-                + String.join(".", requestSelectors)
-                + ':'
-                + (this.resourceType == null ? "" : this.resourceType)
-                + ':'
-                + (this.resourceSuperType == null ? "" : this.resourceSuperType);
-        this.hashCode = key.hashCode();
+        this.matchRules = this.compileMatchRules();
+        this.maxMethodPrefixWeight = getMaxMethodPrefixWeight(this.matchRules);
+        this.hashCode = this.computeHashCode();
     }
 
     @Override
-    protected void getWeightedResources(final Set<WeightedResource> resources, final Resource location) {
+    protected void getWeightedResources(final ScoredCandidates candidates, final Resource location) {
 
         final ResourceResolver resolver = location.getResourceResolver();
         Resource current = location;
+        String currentPath = location.getPath();
         String parentName = current.getName();
 
         int selIdx = 0;
@@ -253,158 +315,176 @@ public class ResourceCollector extends AbstractResourceCollector {
         do {
             selector = (selIdx < numRequestSelectors) ? requestSelectors[selIdx] : null;
 
-            List<Resource> children = getChildrenList(current, isDefaultExtension);
-            for (Resource child : children) {
-
-                if (!SlingServletResolver.isPathAllowed(child.getPath(), this.executionPaths)) {
-                    continue;
-                }
-                String scriptName = child.getName();
-                int lastDot = scriptName.lastIndexOf('.');
-                if (lastDot < 0) {
-                    // no extension in the name, this is not a script
-                    continue;
-                }
-
-                scriptName = scriptName.substring(0, lastDot);
-
-                if (isGet
-                        && checkScriptName(scriptName, selector, parentName, suffExt, null, resources, child, selIdx)) {
-                    continue;
-                }
-
-                if (checkScriptName(
-                        scriptName, selector, parentName, suffExtMethod, suffMethod, resources, child, selIdx)) {
-                    continue;
-                }
-
-                // SLING-754: Not technically really correct because
-                // the request extension is only optional in the script
-                // name for HTML methods, but we keep this for backwards
-                // compatibility.
-                if (selector != null && matches(scriptName, selector, suffMethod)) {
-                    addWeightedResource(resources, child, selIdx + 1, WeightedResource.WEIGHT_NONE);
-                    continue;
-                }
-
-                if (scriptName.equals(methodName)) {
-                    addWeightedResource(resources, child, selIdx, WeightedResource.WEIGHT_NONE);
-                }
+            final ScriptFolder folder = getScriptFolder(resolver, current, currentPath, isDefaultExtension);
+            if (folder.getScripts().length > 0) {
+                addMatchingScripts(candidates, folder, selector, parentName, selIdx);
             }
 
             if (selector != null) {
-                current = resolver.getResource(current, selector);
+                if (isScriptTreeIndexUsed()) {
+                    // the selector folder is listed from the index as well
+                    current = null;
+                    currentPath = folder.hasChild(selector) ? childPath(currentPath, selector) : null;
+                } else {
+                    current = resolver.getResource(current, selector);
+                    currentPath = current != null ? current.getPath() : null;
+                }
                 parentName = selector;
                 selIdx++;
             }
-        } while (selector != null && current != null);
+        } while (selector != null && currentPath != null);
 
         // special treatment for servlets registered with neither a method
         // name nor extensions and selectors
-        addLocationServlet(resources, location);
+        addLocationServlet(candidates, location);
     }
 
     /**
-     * Checks whether the <code>scriptName</code> matches a certain number of
-     * combinations of <code>selector</code>, <code>parentName</code>,
-     * <code>suffix</code> and <code>htmlSuffix</code>. If a match is found the
-     * {@link #addWeightedResource(Set, Resource, int, int)} method is called to
-     * register the found script resource with appropriate selection weight.
+     * Adds the scripts of a folder matching one of the rules. Each script is
+     * weighted by the first rule it matches, the scripts are added in the order
+     * in which they are listed, apart from scripts which only differ in the
+     * extension.
      *
-     * @param scriptName The name of the script (without the script extension)
-     *            to check for compliance.
-     * @param selector The current selector to check for in the script name; may
-     *            be <code>null</code>.
-     * @param parentName The name of the parent folder; must not be
-     *            <code>null</code>.
-     * @param suffix Expected second part of the script name (besides either the
-     *            selector or the parent name); must not be <code>null</code>;
-     *            applicable for any request method.
-     * @param htmlSuffix Expected second part of the script name (besides either
-     *            the selector or the parent name); may be <code>null</code>;
-     *            applicable for GET or HEAD methods only.
-     * @param resources The set of weighted resource to which the new weighted
-     *            resource is added if a match is found.
-     * @param child The resource representing the script
+     * @param candidates The candidates to which the scripts are added.
+     * @param folder The listing of the folder
+     * @param selector The current selector; may be <code>null</code>.
+     * @param parentName The name of the folder; must not be <code>null</code>.
      * @param selIdx The selector weight value
-     * @return <code>true</code> if a match has been found and a weighted
-     *         resource has been added to the <code>resources</code> set.
      */
-    private boolean checkScriptName(
-            final String scriptName,
+    private void addMatchingScripts(
+            final ScoredCandidates candidates,
+            final ScriptFolder folder,
             final String selector,
             final String parentName,
-            final String suffix,
-            final String htmlSuffix,
-            final Set<WeightedResource> resources,
-            final Resource child,
             final int selIdx) {
-        if (selector != null && matches(scriptName, selector, suffix)) {
-            addWeightedResource(resources, child, selIdx + 1, WeightedResource.WEIGHT_EXTENSION);
-            return true;
+        final ScriptFolder.Script[] scripts = folder.getScripts();
+        // the first rule matched by each script, by the position of the script
+        final MatchRule[] matched = new MatchRule[scripts.length];
+        boolean found = false;
+        for (final MatchRule rule : this.matchRules) {
+            final String name = rule.getName(selector, parentName);
+            if (name == null) {
+                continue;
+            }
+            for (final ScriptFolder.Script script : folder.getScripts(name)) {
+                if (matched[script.getIndex()] == null) {
+                    matched[script.getIndex()] = rule;
+                    found = true;
+                }
+            }
         }
-
-        if (matches(scriptName, parentName, suffix)) {
-            addWeightedResource(
-                    resources,
-                    child,
-                    selIdx,
-                    WeightedResource.WEIGHT_EXTENSION
-                            + WeightedResource.WEIGHT_PREFIX
-                            + ((htmlSuffix != null) ? WeightedResource.WEIGHT_METHOD : WeightedResource.WEIGHT_NONE));
-            return true;
+        if (!found) {
+            return;
+        }
+        final ScriptFolder.Script[] ordered = new ScriptFolder.Script[scripts.length];
+        int count = 0;
+        for (int i = 0; i < scripts.length; i++) {
+            if (matched[i] != null && SlingServletResolver.isPathAllowed(scripts[i].getPath(), this.executionPaths)) {
+                ordered[count++] = scripts[i];
+            }
         }
+        orderByExtensionRank(ordered, count, folder);
+        for (int i = 0; i < count; i++) {
+            final MatchRule rule = matched[ordered[i].getIndex()];
+            candidates.add(ordered[i], selIdx + rule.numSelectors, rule.methodPrefixWeight);
+        }
+    }
 
-        if (suffix != null && !suffix.isEmpty() && scriptName.equals(suffix.substring(1))) {
-            addWeightedResource(
-                    resources,
-                    child,
-                    selIdx,
-                    WeightedResource.WEIGHT_EXTENSION
-                            + ((htmlSuffix != null) ? WeightedResource.WEIGHT_METHOD : WeightedResource.WEIGHT_NONE));
-            return true;
+    private static int getMaxMethodPrefixWeight(final MatchRule[] rules) {
+        int result = WeightedResource.WEIGHT_LAST_RESSORT;
+        for (final MatchRule rule : rules) {
+            result = Math.max(result, rule.methodPrefixWeight);
         }
+        return result;
+    }
 
-        if (isDefaultExtension) {
-            if (selector != null && matches(scriptName, selector, htmlSuffix)) {
-                addWeightedResource(resources, child, selIdx + 1, WeightedResource.WEIGHT_NONE);
-                return true;
-            }
+    @Override
+    protected int getMaxSelectors() {
+        // a selector is only matched while there is a selector left
+        return numRequestSelectors;
+    }
 
-            if (matches(scriptName, parentName, htmlSuffix)) {
-                addWeightedResource(resources, child, selIdx, WeightedResource.WEIGHT_PREFIX);
-                return true;
-            }
+    @Override
+    protected int getMaxMethodPrefixWeight() {
+        return this.maxMethodPrefixWeight;
+    }
+
+    /**
+     * Compiles the rules a script name is matched against, in the order in which
+     * they are checked.
+     */
+    private MatchRule[] compileMatchRules() {
+        final List<MatchRule> rules = new ArrayList<>();
+        if (isGet) {
+            addMatchRules(rules, suffExt, null);
         }
-        return false;
+        addMatchRules(rules, suffExtMethod, suffMethod);
+
+        // SLING-754: Not technically really correct because
+        // the request extension is only optional in the script
+        // name for HTML methods, but we keep this for backwards
+        // compatibility.
+        rules.add(new MatchRule(MatchRule.SELECTOR, suffMethod, 1, WeightedResource.WEIGHT_NONE));
+
+        rules.add(new MatchRule(MatchRule.NAME, methodName, 0, WeightedResource.WEIGHT_NONE));
+        return rules.toArray(new MatchRule[0]);
     }
 
-    private boolean matches(final String scriptName, final String name, String suffix) {
-        if (suffix == null) {
-            return scriptName.equals(name);
+    /**
+     * Adds the rules matching a certain number of combinations of the selector,
+     * the parent name, <code>suffix</code> and <code>htmlSuffix</code>.
+     *
+     * @param rules The rules to add to
+     * @param suffix Expected second part of the script name (besides either the
+     *            selector or the parent name); must not be <code>null</code>;
+     *            applicable for any request method.
+     * @param htmlSuffix Expected second part of the script name (besides either
+     *            the selector or the parent name); may be <code>null</code>;
+     *            applicable for GET or HEAD methods only.
+     */
+    private void addMatchRules(final List<MatchRule> rules, final String suffix, final String htmlSuffix) {
+        final int methodWeight = (htmlSuffix != null) ? WeightedResource.WEIGHT_METHOD : WeightedResource.WEIGHT_NONE;
+        rules.add(new MatchRule(MatchRule.SELECTOR, suffix, 1, WeightedResource.WEIGHT_EXTENSION));
+        rules.add(new MatchRule(
+                MatchRule.PARENT,
+                suffix,
+                0,
+                WeightedResource.WEIGHT_EXTENSION + WeightedResource.WEIGHT_PREFIX + methodWeight));
+        if (suffix != null && !suffix.isEmpty()) {
+            rules.add(new MatchRule(
+                    MatchRule.NAME, suffix.substring(1), 0, WeightedResource.WEIGHT_EXTENSION + methodWeight));
+        }
+        if (isDefaultExtension) {
+            rules.add(new MatchRule(MatchRule.SELECTOR, htmlSuffix, 1, WeightedResource.WEIGHT_NONE));
+            rules.add(new MatchRule(MatchRule.PARENT, htmlSuffix, 0, WeightedResource.WEIGHT_PREFIX));
         }
-        final int lenScriptName = scriptName.length();
-        final int lenName = name.length();
-        final int lenSuffix = suffix.length();
-        return scriptName.regionMatches(0, name, 0, lenName)
-                && scriptName.regionMatches(lenName, suffix, 0, lenSuffix)
-                && lenScriptName == (lenName + lenSuffix);
     }
 
-    private void addLocationServlet(final Set<WeightedResource> resources, final Resource location) {
+    private static String childPath(final String path, final String name) {
+        return path.endsWith("/") ? path.concat(name) : path.concat("/").concat(name);
+    }
+
+    private void addLocationServlet(final ScoredCandidates candidates, final Resource location) {
         final String path = location.getPath() + ServletResourceProviderFactory.SERVLET_PATH_EXTENSION;
         if (SlingServletResolver.isPathAllowed(path, this.executionPaths)) {
-            final Resource servlet = location.getResourceResolver().getResource(path);
+            final ResourceResolver resolver = location.getResourceResolver();
+            final String parentPath = ResourceUtil.getParent(location.getPath());
+            if (isScriptTreeIndexUsed()
+                    && parentPath != null
+                    && !getScriptFolder(resolver, null, parentPath, false).hasChild(ResourceUtil.getName(path))) {
+                // no servlet is registered for the location
+                return;
+            }
+            final Resource servlet = resolver.getResource(path);
             if (servlet != null) {
-                addWeightedResource(resources, servlet, 0, WeightedResource.WEIGHT_LAST_RESSORT);
+                addWeightedResource(candidates, servlet, 0, WeightedResource.WEIGHT_LAST_RESSORT);
             }
         }
     }
 
-    @Override
-    public int hashCode() {
+    private int computeHashCode() {
         final int prime = 31;
-        int result = super.hashCode();
+        int result = this.hashCode;
         result = prime * result + (isDefaultExtension ? 1231 : 1237);
         result = prime * result + (isGet ? 1231 : 1237);
         result = prime * result + ((methodName == null) ? 0 : methodName.hashCode());
@@ -427,4 +507,54 @@ public class ResourceCollector extends AbstractResourceCollector {
         if (numRequestSelectors != other.numRequestSelectors) return false;
         return Arrays.equals(requestSelectors, other.requestSelectors);
     }
+
+    /**
+     * A rule for the base name of a script: the name is either the current
+     * selector, the name of the parent folder or a fixed name, followed by a
+     * suffix.
+     */
+    private static final class MatchRule {
+
+        static final int SELECTOR = 0;
+
+        static final int PARENT = 1;
+
+        static final int NAME = 2;
+
+        private final int source;
+
+        // the suffix or, for a fixed name, the name; may be null
+        private final String suffix;
+
+        // the number of selectors matched in addition to the current selector index
+        final int numSelectors;
+
+        final int methodPrefixWeight;
+
+        MatchRule(final int source, final String suffix, final int numSelectors, final int methodPrefixWeight) {
+            this.source = source;
+            this.suffix = suffix;
+            this.numSelectors = numSelectors;
+            this.methodPrefixWeight = methodPrefixWeight;
+        }
+
+        /**
+         * Get the base name matched by this rule
+         * @return The name or <code>null</code> if no name can match
+         */
+        String getName(final String selector, final String parentName) {
+            final String prefix;
+            if (source == NAME) {
+                return suffix;
+            } else if (source == SELECTOR) {
+                if (selector == null) {
+                    return null;
+                }
+                prefix = selector;
+            } else {
+                prefix = parentName;
+            }
+            return suffix == null ? prefix : prefix.concat(suffix);
+        }
+    }
 }
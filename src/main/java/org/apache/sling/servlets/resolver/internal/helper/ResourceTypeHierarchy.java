@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A global index of the resource type hierarchy, shared by all script resolvers.
+ * It maps the path of a resource type to its super type, as found in the search
+ * path, and records which locations searched for scripts exist.
+ * <p>
+ * Entries are added when a hierarchy is walked for the first time. They are removed
+ * for the paths reported by resource change events, so only the affected part of the
+ * hierarchy is looked up again. Entries are only added if no change has been reported
+ * while they were looked up.
+ * <p>
+ * The index grows with the number of resource types and locations which have been
+ * looked up, and it is cleared whenever the resolution cache is flushed. It holds at
+ * most the configured number of entries: as {@link #isAffectedBy(String)} relies on all
+ * looked up entries being recorded, single entries are not evicted. Once the index is
+ * full, it is cleared instead and the overflow callback is run, so that everything
+ * computed from the dropped entries is discarded and the index is built again.
+ */
+public final class ResourceTypeHierarchy {
+
+    /** The search path of the script resolvers, {@code null} if the index is not used. */
+    private volatile String[] searchPath;
+
+    /** The resource type paths to their super types. */
+    private final ConcurrentNavigableMap<String, Optional<String>> superTypes = new ConcurrentSkipListMap<>();
+
+    /** The location paths to whether a resource exists at the path. */
+    private final ConcurrentNavigableMap<String, Boolean> locations = new ConcurrentSkipListMap<>();
+
+    /** Incremented for every change, entries looked up before a change are not added. */
+    private final AtomicLong version = new AtomicLong();
+
+    /** The number of entries of both maps. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** The maximum number of entries. */
+    private volatile int maximumSize = Integer.MAX_VALUE;
+
+    /** Run whenever the index has been cleared because it was full. */
+    private final Runnable onOverflow;
+
+    /**
+     * Create an index which is cleared once it is full
+     */
+    public ResourceTypeHierarchy() {
+        this(() -> {});
+    }
+
+    /**
+     * Create an index
+     * @param onOverflow Run whenever the index has been cleared because it was full
+     */
+    public ResourceTypeHierarchy(@NotNull final Runnable onOverflow) {
+        this.onOverflow = onOverflow;
+    }
+
+    /**
+     * Clear the index and set the search path of the script resolvers.
+     * @param searchPath The search path, {@code null} to disable the index
+     */
+    public void reset(@Nullable final String[] searchPath) {
+        this.reset(searchPath, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Clear the index and set the search path of the script resolvers.
+     * @param searchPath The search path, {@code null} to disable the index
+     * @param maximumSize The maximum number of entries
+     */
+    public void reset(@Nullable final String[] searchPath, final int maximumSize) {
+        this.searchPath = searchPath != null ? searchPath.clone() : null;
+        this.maximumSize = maximumSize;
+        this.clear();
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        this.version.incrementAndGet();
+        this.size.addAndGet(-removeTree(this.superTypes, "/") - removeTree(this.locations, "/"));
+    }
+
+    /**
+     * Get the number of entries in the index
+     * @return The number of super types and locations
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Check whether the index can be used for a resolver. This is only the case if
+     * the resolver uses the search path the index has been set up with.
+     * @param resolver The resolver
+     * @return {@code true} if the index can be used
+     */
+    public boolean isUsableFor(@NotNull final ResourceResolver resolver) {
+        final String[] localSearchPath = this.searchPath;
+        return localSearchPath != null && Arrays.equals(localSearchPath, resolver.getSearchPath());
+    }
+
+    /**
+     * Get the version of the index, to be passed when adding an entry
+     * @return The version
+     */
+    long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * Get the super type of a resource type
+     * @param resourceTypePath The resource type, converted to a path
+     * @return The super type, empty if the resource type has none, or {@code null} if it is not known
+     */
+    @Nullable
+    Optional<String> getSuperType(@NotNull final String resourceTypePath) {
+        return this.superTypes.get(resourceTypePath);
+    }
+
+    /**
+     * Add the super type of a resource type
+     * @param resourceTypePath The resource type, converted to a path
+     * @param superType The super type, might be {@code null}
+     * @param version The version of the index when the super type has been looked up
+     */
+    void putSuperType(@NotNull final String resourceTypePath, @Nullable final String superType, final long version) {
+        put(this.superTypes, resourceTypePath, Optional.ofNullable(superType), version);
+    }
+
+    /**
+     * Check whether a location exists
+     * @param path The path of the location
+     * @return Whether a resource exists at the path, {@code null} if it is not known
+     */
+    @Nullable
+    Boolean exists(@NotNull final String path) {
+        return this.locations.get(path);
+    }
+
+    /**
+     * Add whether a location exists
+     * @param path The path of the location
+     * @param exists Whether a resource exists at the path
+     * @param version The version of the index when the location has been looked up
+     */
+    void putExists(@NotNull final String path, final boolean exists, final long version) {
+        put(this.locations, path, exists, version);
+    }
+
+    private <V> void put(
+            final ConcurrentNavigableMap<String, V> map, final String key, final V value, final long version) {
+        if (this.version.get() == version) {
+            if (this.size.get() >= this.maximumSize && !map.containsKey(key)) {
+                // the entry is not added, as the clear changes the version
+                this.clear();
+                this.onOverflow.run();
+                return;
+            }
+            if (map.put(key, value) == null) {
+                this.size.incrementAndGet();
+            }
+            // a change might have been reported in the meantime
+            if (this.version.get() != version && map.remove(key, value)) {
+                this.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove the entries affected by changes
+     * @param paths The changed paths
+     */
+    public void onChange(@NotNull final Collection<String> paths) {
+        final String[] localSearchPath = this.searchPath;
+        if (localSearchPath == null || paths.isEmpty()) {
+            return;
+        }
+        this.version.incrementAndGet();
+        int removed = 0;
+        for (final String path : paths) {
+            removed += removeTree(this.locations, path);
+            // absolute resource types
+            removed += removeTree(this.superTypes, path);
+            // resource types relative to the search path
+            for (final String prefix : localSearchPath) {
+                if (path.startsWith(prefix)) {
+                    removed += removeTree(this.superTypes, path.substring(prefix.length()));
+                } else if (prefix.startsWith(path.endsWith("/") ? path : path.concat("/"))) {
+                    // a search path itself changed, all relative resource types are affected
+                    for (final String type : this.superTypes.keySet()) {
+                        if (!type.startsWith("/") && this.superTypes.remove(type) != null) {
+                            removed++;
+                        }
+                    }
+                }
+            }
+        }
+        this.size.addAndGet(-removed);
+    }
+
+    /**
+     * Check whether a change of a path affects the index. All resource types and locations
+     * a resolution has been computed from are recorded, so a change of a path without entries
+     * for it or its descendants, and which is not below a location, can't affect a resolution.
+     * @param path The changed path
+     * @return {@code true} if the index has entries for the path, or if the index is not used
+     */
+    public boolean isAffectedBy(@NotNull final String path) {
+        final String[] localSearchPath = this.searchPath;
+        if (localSearchPath == null || path.isEmpty() || path.equals("/")) {
+            return true;
+        }
+        final String key = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        if (containsTree(this.locations, key) || containsTree(this.superTypes, key)) {
+            return true;
+        }
+        // scripts below a location
+        for (int pos = key.lastIndexOf('/'); pos > 0; pos = key.lastIndexOf('/', pos - 1)) {
+            if (this.locations.containsKey(key.substring(0, pos))) {
+                return true;
+            }
+        }
+        for (final String prefix : localSearchPath) {
+            if (key.startsWith(prefix)) {
+                if (containsTree(this.superTypes, key.substring(prefix.length()))) {
+                    return true;
+                }
+            } else if (prefix.startsWith(key.concat("/"))) {
+                // a search path itself
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether there is an entry for the path or for one of its descendants
+     */
+    private static boolean containsTree(final ConcurrentNavigableMap<String, ?> map, final String key) {
+        return map.containsKey(key)
+                || !map.subMap(key.concat("/"), key.concat("0")).isEmpty();
+    }
+
+    /**
+     * Remove the entry for the path and the entries of all descendants
+     * @return The number of removed entries
+     */
+    static int removeTree(final ConcurrentNavigableMap<String, ?> map, final String path) {
+        final String key = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        // all keys starting with "key/", '0' is the character following '/'
+        final Collection<String> keys = key.isEmpty()
+                ? map.keySet()
+                : map.subMap(key.concat("/"), key.concat("0")).keySet();
+        int removed = !key.isEmpty() && map.remove(key) != null ? 1 : 0;
+        for (final String child : keys) {
+            if (map.remove(child) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The servlet and script candidates found by a resource collector, ranked by a
+ * score packed into a <code>long</code>.
+ * <p>
+ * The score orders the candidates like {@link WeightedResource#compareTo(WeightedResource)}:
+ * more matching selectors first, then the higher method/prefix weight, then the
+ * lower ordinal number. The ordinal number is the position in which the candidate
+ * has been added and is kept in the lowest bits of the score, so the scores are
+ * kept in a binary heap of primitives and the candidates are found by their
+ * ordinal.
+ * <p>
+ * The candidates are iterated best first. Candidates are added location by
+ * location from a {@link Source}, the next location is only read while it might
+ * contain a candidate ranked before the best candidate found so far: a later
+ * location only adds candidates with a higher ordinal number, so it can only
+ * outrank a candidate with more selectors or a higher weight. Scripts are only
+ * added with their path, their resources are only read when they are iterated.
+ * The candidates can only be iterated once.
+ */
+final class ScoredCandidates implements Iterable<Resource> {
+
+    /**
+     * The source of the candidates.
+     */
+    @FunctionalInterface
+    interface Source {
+
+        /**
+         * Add the candidates of the next location
+         * @param candidates The candidates to add to
+         * @return {@code false} if there is no location left
+         */
+        boolean addNext(@NotNull ScoredCandidates candidates);
+    }
+
+    private static final int ORDINAL_BITS = 32;
+
+    private static final int WEIGHT_BITS = 8;
+
+    /** The highest method/prefix weight, higher weights get a lower score */
+    private static final int MAX_WEIGHT = (1 << (WEIGHT_BITS - 1)) - 1;
+
+    /** The highest number of selectors, higher numbers get a lower score */
+    private static final int MAX_SELECTORS = (1 << 16) - 1;
+
+    private static final long ORDINAL_MASK = (1L << ORDINAL_BITS) - 1;
+
+    private final ResourceResolver resolver;
+
+    private final boolean useResourceCaching;
+
+    /** The highest number of selectors a candidate of the source can match */
+    private final int maxSelectors;
+
+    /** The highest method/prefix weight a candidate of the source can have */
+    private final int maxMethodPrefixWeight;
+
+    /** The source, {@code null} once all locations have been read */
+    private Source source;
+
+    /** The scores of the candidates not iterated yet, a binary min heap */
+    private long[] scores = new long[16];
+
+    private int heapSize;
+
+    /** The candidates by ordinal, either a {@link Resource} or a {@link ScriptFolder.Script} */
+    private Object[] candidates = new Object[16];
+
+    private int size;
+
+    private boolean iterated;
+
+    /**
+     * Create the candidates
+     * @param resolver The resolver to read the scripts with
+     * @param useResourceCaching Whether the resources are cached in the resolver
+     * @param source The source of the candidates, might be {@code null} if all
+     *            candidates are added right away
+     * @param maxSelectors The highest number of selectors a candidate of the source can match
+     * @param maxMethodPrefixWeight The highest method/prefix weight a candidate of the source can have
+     */
+    ScoredCandidates(
+            @NotNull final ResourceResolver resolver,
+            final boolean useResourceCaching,
+            @Nullable final Source source,
+            final int maxSelectors,
+            final int maxMethodPrefixWeight) {
+        this.resolver = resolver;
+        this.useResourceCaching = useResourceCaching;
+        this.source = source;
+        this.maxSelectors = maxSelectors;
+        this.maxMethodPrefixWeight = maxMethodPrefixWeight;
+    }
+
+    /**
+     * Add a servlet or script resource
+     * @param resource The resource
+     * @param numSelectors The number of request selectors which are matched
+     * @param methodPrefixWeight The method/prefix weight
+     */
+    void add(@NotNull final Resource resource, final int numSelectors, final int methodPrefixWeight) {
+        this.addCandidate(resource, numSelectors, methodPrefixWeight);
+    }
+
+    /**
+     * Add a script from a folder listing, its resource is read when it is iterated
+     * @param script The script
+     * @param numSelectors The number of request selectors which are matched
+     * @param methodPrefixWeight The method/prefix weight
+     */
+    void add(@NotNull final ScriptFolder.Script script, final int numSelectors, final int methodPrefixWeight) {
+        this.addCandidate(script, numSelectors, methodPrefixWeight);
+    }
+
+    private void addCandidate(final Object candidate, final int numSelectors, final int methodPrefixWeight) {
+        if (this.size == this.candidates.length) {
+            this.candidates = Arrays.copyOf(this.candidates, this.size * 2);
+        }
+        if (this.heapSize == this.scores.length) {
+            this.scores = Arrays.copyOf(this.scores, this.heapSize * 2);
+        }
+        this.candidates[this.size] = candidate;
+        // sift up
+        final long score = score(numSelectors, methodPrefixWeight, this.size);
+        int pos = this.heapSize++;
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if (this.scores[parent] <= score) {
+                break;
+            }
+            this.scores[pos] = this.scores[parent];
+            pos = parent;
+        }
+        this.scores[pos] = score;
+        this.size++;
+    }
+
+    /**
+     * Remove the lowest score from the heap
+     */
+    private long poll() {
+        final long result = this.scores[0];
+        final long last = this.scores[--this.heapSize];
+        // sift down
+        int pos = 0;
+        final int half = this.heapSize >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            if (child + 1 < this.heapSize && this.scores[child + 1] < this.scores[child]) {
+                child++;
+            }
+            if (last <= this.scores[child]) {
+                break;
+            }
+            this.scores[pos] = this.scores[child];
+            pos = child;
+        }
+        if (this.heapSize > 0) {
+            this.scores[pos] = last;
+        }
+        return result;
+    }
+
+    /**
+     * Compute the score of a candidate, a lower score is ranked first
+     */
+    static long score(final int numSelectors, final int methodPrefixWeight, final int ordinal) {
+        final long selectorsScore = MAX_SELECTORS - Math.max(0, Math.min(numSelectors, MAX_SELECTORS));
+        final long weightScore = MAX_WEIGHT - Math.max(Math.min(methodPrefixWeight, MAX_WEIGHT), -MAX_WEIGHT);
+        return (selectorsScore << (ORDINAL_BITS + WEIGHT_BITS)) | (weightScore << ORDINAL_BITS) | ordinal;
+    }
+
+    /**
+     * Read locations until the best candidate can't be outranked by a candidate
+     * of a location not read yet, or until all locations are read.
+     */
+    private void readUntilBestIsKnown() {
+        while (this.source != null
+                && (this.heapSize == 0
+                        || this.scores[0] > score(this.maxSelectors, this.maxMethodPrefixWeight, this.size))) {
+            if (!this.source.addNext(this)) {
+                this.source = null;
+            }
+        }
+    }
+
+    /**
+     * Get the number of candidates added so far, including scripts which might not exist anymore
+     * @return The number of candidates
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Check whether all locations have been read
+     * @return {@code true} if all locations have been read
+     */
+    boolean isComplete() {
+        return this.source == null;
+    }
+
+    @Override
+    public @NotNull Iterator<Resource> iterator() {
+        if (this.iterated) {
+            throw new IllegalStateException("Candidates can only be iterated once");
+        }
+        this.iterated = true;
+        return new Iterator<Resource>() {
+
+            private Resource next;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null) {
+                    readUntilBestIsKnown();
+                    if (heapSize == 0) {
+                        return false;
+                    }
+                    // the resource of a script is only read once it is asked for
+                    final Object candidate = candidates[(int) (poll() & ORDINAL_MASK)];
+                    this.next = candidate instanceof ScriptFolder.Script
+                            ? getResource((ScriptFolder.Script) candidate)
+                            : (Resource) candidate;
+                }
+                return true;
+            }
+
+            @Override
+            public Resource next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Resource result = this.next;
+                this.next = null;
+                return result;
+            }
+        };
+    }
+
+    private Resource getResource(final ScriptFolder.Script script) {
+        final Resource resource = script.getResource();
+        if (resource != null) {
+            return resource;
+        }
+        return AbstractResourceCollector.getResourceOrNull(this.resolver, script.getPath(), this.useResourceCaching);
+    }
+}
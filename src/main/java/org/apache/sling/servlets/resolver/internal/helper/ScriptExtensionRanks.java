@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The immutable, ordered list of script engine extensions together with a
+ * lookup table from an extension to its position in the list. The position
+ * is the rank of the extension when ordering scripts which only differ in
+ * their extension: scripts for extensions later in the list are preferred.
+ * <p>
+ * The table uses open addressing and allows to look up an extension which is
+ * part of a script name without creating a substring.
+ */
+public final class ScriptExtensionRanks {
+
+    /** The rank of an extension which is not in the list. */
+    public static final int NO_RANK = -1;
+
+    /** The ranks for an empty list of extensions. */
+    public static final ScriptExtensionRanks EMPTY = new ScriptExtensionRanks(Collections.emptyList());
+
+    private final List<String> extensions;
+
+    private final String[] keys;
+
+    private final int[] ranks;
+
+    private final int mask;
+
+    private ScriptExtensionRanks(final List<String> extensions) {
+        this.extensions = Collections.unmodifiableList(new ArrayList<>(extensions));
+        int capacity = 2;
+        while (capacity < 2 * this.extensions.size()) {
+            capacity <<= 1;
+        }
+        this.keys = new String[capacity];
+        this.ranks = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < this.extensions.size(); i++) {
+            final String extension = this.extensions.get(i);
+            if (extension != null) {
+                this.add(extension, i);
+            }
+        }
+    }
+
+    /**
+     * Create the ranks for the list of extensions
+     * @param extensions The ordered script engine extensions
+     * @return The ranks
+     */
+    public static ScriptExtensionRanks of(final List<String> extensions) {
+        return extensions.isEmpty() ? EMPTY : new ScriptExtensionRanks(extensions);
+    }
+
+    private void add(final String extension, final int rank) {
+        int slot = hash(extension, 0, extension.length()) & this.mask;
+        while (this.keys[slot] != null) {
+            if (this.keys[slot].equals(extension)) {
+                // keep the first position, like List.indexOf
+                return;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.keys[slot] = extension;
+        this.ranks[slot] = rank;
+    }
+
+    /**
+     * Get the ordered list of extensions
+     * @return The unmodifiable list
+     */
+    public List<String> getExtensions() {
+        return this.extensions;
+    }
+
+    /**
+     * Get the rank of an extension
+     * @param extension The extension
+     * @return The position of the extension in the list or {@link #NO_RANK}
+     */
+    public int getRank(final String extension) {
+        return this.getRank(extension, 0, extension.length());
+    }
+
+    /**
+     * Get the rank of the extension contained in the given part of a string
+     * @param value The string containing the extension
+     * @param begin The index of the first character of the extension
+     * @param end The index after the last character of the extension
+     * @return The position of the extension in the list or {@link #NO_RANK}
+     */
+    public int getRank(final String value, final int begin, final int end) {
+        final int length = end - begin;
+        int slot = hash(value, begin, end) & this.mask;
+        String key;
+        while ((key = this.keys[slot]) != null) {
+            if (key.length() == length && key.regionMatches(0, value, begin, length)) {
+                return this.ranks[slot];
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return NO_RANK;
+    }
+
+    private static int hash(final String value, final int begin, final int end) {
+        int h = 0;
+        for (int i = begin; i < end; i++) {
+            h = 31 * h + value.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+}
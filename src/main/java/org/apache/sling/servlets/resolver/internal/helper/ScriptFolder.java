@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.api.resource.Resource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The immutable listing of a folder which might contain scripts, with the
+ * names of the children already split into the parts used for matching. The
+ * scripts are also indexed by their base name, so the scripts matching a
+ * request are found with a few lookups.
+ */
+final class ScriptFolder {
+
+    static final ScriptFolder EMPTY = new ScriptFolder(new Script[0], new HashSet<>());
+
+    private static final Script[] NO_SCRIPTS = new Script[0];
+
+    /** The children with an extension in their name, in the order they are listed */
+    private final Script[] scripts;
+
+    /** The scripts by their base name, each in the order they are listed */
+    private final Map<String, Script[]> scriptsByBaseName;
+
+    /** The names of all children */
+    private final Set<String> childNames;
+
+    private ScriptFolder(final Script[] scripts, final Set<String> childNames) {
+        this.scripts = scripts;
+        this.childNames = childNames;
+        final Map<String, List<Script>> lists = new HashMap<>();
+        for (final Script script : scripts) {
+            lists.computeIfAbsent(script.baseName, key -> new ArrayList<>(1)).add(script);
+        }
+        this.scriptsByBaseName = new HashMap<>(lists.size() * 2);
+        lists.forEach((key, value) -> this.scriptsByBaseName.put(key, value.toArray(NO_SCRIPTS)));
+    }
+
+    /**
+     * Create the listing of a folder
+     * @param children The children of the folder
+     * @param keepResources Whether the resources are kept with the scripts. Listings
+     *            which are shared by several resolvers must not keep them.
+     * @return The listing
+     */
+    static @NotNull ScriptFolder of(@NotNull final List<Resource> children, final boolean keepResources) {
+        if (children.isEmpty()) {
+            return EMPTY;
+        }
+        final Set<String> names = new HashSet<>(children.size());
+        final Script[] scripts = new Script[children.size()];
+        int count = 0;
+        for (final Resource child : children) {
+            final String name = child.getName();
+            names.add(name);
+            final int lastDot = name.lastIndexOf('.');
+            if (lastDot >= 0) {
+                // only a name with an extension denotes a script
+                scripts[count] = new Script(
+                        count,
+                        name.substring(0, lastDot),
+                        name.substring(lastDot + 1),
+                        child.getPath(),
+                        keepResources ? child : null);
+                count++;
+            }
+        }
+        final Script[] result = new Script[count];
+        System.arraycopy(scripts, 0, result, 0, count);
+        return new ScriptFolder(result, names);
+    }
+
+    @NotNull
+    Script[] getScripts() {
+        return this.scripts;
+    }
+
+    /**
+     * Get the scripts with a base name
+     * @param baseName The name without the script extension
+     * @return The scripts in the order they are listed, empty if there is none
+     */
+    @NotNull
+    Script[] getScripts(@NotNull final String baseName) {
+        final Script[] result = this.scriptsByBaseName.get(baseName);
+        return result != null ? result : NO_SCRIPTS;
+    }
+
+    boolean hasChild(@NotNull final String name) {
+        return this.childNames.contains(name);
+    }
+
+    /**
+     * A child of a folder with an extension in its name.
+     */
+    static final class Script {
+
+        /** The position of the script in the listing */
+        private final int index;
+
+        /** The name without the script extension */
+        private final String baseName;
+
+        /** The script extension, might be empty */
+        private final String extension;
+
+        private final String path;
+
+        private final Resource resource;
+
+        private Script(
+                final int index,
+                final String baseName,
+                final String extension,
+                final String path,
+                final Resource resource) {
+            this.index = index;
+            this.baseName = baseName;
+            this.extension = extension;
+            this.path = path;
+            this.resource = resource;
+        }
+
+        int getIndex() {
+            return this.index;
+        }
+
+        @NotNull
+        String getBaseName() {
+            return this.baseName;
+        }
+
+        @NotNull
+        String getExtension() {
+            return this.extension;
+        }
+
+        @NotNull
+        String getPath() {
+            return this.path;
+        }
+
+        /**
+         * Get the resource of the script, if it has been kept with the listing
+         * @return The resource or {@code null}
+         */
+        @Nullable
+        Resource getResource() {
+            return this.resource;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A global index of the folders which are searched for scripts and servlets,
+ * shared by all script resolvers. For every folder it holds the names of the
+ * children, with the names of the scripts already split into the parts used for
+ * matching, so that collecting the candidates for a request does not list the
+ * folders again.
+ * <p>
+ * A folder is added when it is listed for the first time. The folders affected by
+ * resource change events are removed, and all folders are removed when servlets are
+ * registered or unregistered, as the cache is flushed in that case.
+ * <p>
+ * The index holds at most the configured number of folders. Once it is full, folders
+ * are evicted in the order of their paths, starting after the last evicted folder, and
+ * are listed again when they are needed.
+ */
+public final class ScriptTreeIndex {
+
+    /** The search path of the script resolvers, {@code null} if the index is not used. */
+    private volatile String[] searchPath;
+
+    /** The folder paths to their listings. */
+    private final ConcurrentNavigableMap<String, ScriptFolder> folders = new ConcurrentSkipListMap<>();
+
+    /** Incremented for every change, listings read before a change are not added. */
+    private final AtomicLong version = new AtomicLong();
+
+    /** The number of folders. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** The maximum number of folders. */
+    private volatile int maximumSize = Integer.MAX_VALUE;
+
+    /** The path of the last evicted folder. */
+    private volatile String evictionHand = "";
+
+    /**
+     * Clear the index and set the search path of the script resolvers.
+     * @param searchPath The search path, {@code null} to disable the index
+     */
+    public void reset(@Nullable final String[] searchPath) {
+        this.reset(searchPath, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Clear the index and set the search path of the script resolvers.
+     * @param searchPath The search path, {@code null} to disable the index
+     * @param maximumSize The maximum number of folders
+     */
+    public void reset(@Nullable final String[] searchPath, final int maximumSize) {
+        this.searchPath = searchPath != null ? searchPath.clone() : null;
+        this.maximumSize = maximumSize;
+        this.clear();
+    }
+
+    /**
+     * Remove all folders
+     */
+    public void clear() {
+        this.version.incrementAndGet();
+        this.size.addAndGet(-ResourceTypeHierarchy.removeTree(this.folders, "/"));
+    }
+
+    /**
+     * Check whether the index can be used for a resolver. This is only the case if
+     * the resolver uses the search path the index has been set up with.
+     * @param resolver The resolver
+     * @return {@code true} if the index can be used
+     */
+    public boolean isUsableFor(@NotNull final ResourceResolver resolver) {
+        final String[] localSearchPath = this.searchPath;
+        return localSearchPath != null && Arrays.equals(localSearchPath, resolver.getSearchPath());
+    }
+
+    /**
+     * Get the listing of a folder, the folder is listed with the resolver if it is not
+     * in the index yet.
+     * @param resolver The resolver to list the folder with
+     * @param path The path of the folder
+     * @param folder The resource of the folder if it is already known, might be {@code null}
+     * @return The listing, empty if the folder does not exist
+     */
+    @NotNull
+    ScriptFolder getFolder(
+            @NotNull final ResourceResolver resolver, @NotNull final String path, @Nullable final Resource folder) {
+        final ScriptFolder cached = this.folders.get(path);
+        if (cached != null) {
+            return cached;
+        }
+        final long currentVersion = this.version.get();
+        Resource parent = folder != null ? folder : resolver.getResource(path);
+        if (parent == null) {
+            // servlets might be registered below a path which does not exist
+            parent = new SyntheticResource(resolver, path, "$synthetic$");
+        }
+        final List<Resource> children = new ArrayList<>();
+        final Iterator<Resource> iter = parent.listChildren();
+        while (iter.hasNext()) {
+            children.add(iter.next());
+        }
+        final ScriptFolder listing = ScriptFolder.of(children, false);
+        if (this.version.get() == currentVersion) {
+            if (this.folders.put(path, listing) == null && this.size.incrementAndGet() > this.maximumSize) {
+                this.evict(path);
+            }
+            // a change might have been reported in the meantime
+            if (this.version.get() != currentVersion && this.folders.remove(path, listing)) {
+                this.size.decrementAndGet();
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * Evict folders until the index is not larger than its maximum size
+     * @param added The path of the folder just added, which is not evicted
+     */
+    private void evict(final String added) {
+        while (this.size.get() > this.maximumSize) {
+            String victim = this.folders.higherKey(this.evictionHand);
+            if (victim == null) {
+                // wrap around
+                victim = this.folders.ceilingKey("");
+            }
+            if (victim == null || (victim.equals(added) && this.folders.size() == 1)) {
+                return;
+            }
+            this.evictionHand = victim;
+            if (!victim.equals(added) && this.folders.remove(victim) != null) {
+                this.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove the folders affected by changes. These are the changed folders, their
+     * descendants and their parents, as the children of the parents have changed.
+     * @param paths The changed paths
+     */
+    public void onChange(@NotNull final Collection<String> paths) {
+        if (this.searchPath == null || paths.isEmpty()) {
+            return;
+        }
+        this.version.incrementAndGet();
+        int removed = 0;
+        for (final String path : paths) {
+            removed += ResourceTypeHierarchy.removeTree(this.folders, path);
+            final String parent = ResourceUtil.getParent(path);
+            if (parent != null && this.folders.remove(parent) != null) {
+                removed++;
+            }
+        }
+        this.size.addAndGet(-removed);
+    }
+
+    /**
+     * Get the number of folders in the index
+     * @return The number of folders
+     */
+    public int size() {
+        return this.size.get();
+    }
+}
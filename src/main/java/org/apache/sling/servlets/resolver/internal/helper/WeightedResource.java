@@ -39,6 +39,10 @@ import org.apache.sling.api.resource.ResourceWrapper;
  * the lower ordinal number ({@link #getOrdinal()} is ordered before the
  * instance with the higher ordinal number.</li>
  * </ol>
+ * <p>
+ * The resource collectors rank their candidates in the same order with the
+ * scores of {@link ScoredCandidates}, which are based on the weight values
+ * defined here.
  */
 final class WeightedResource extends ResourceWrapper implements Comparable<WeightedResource> {
 
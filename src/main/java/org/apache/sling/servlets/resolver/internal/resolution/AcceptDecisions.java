@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.servlets.resolver.api.CacheableOptingServlet;
+import org.apache.sling.servlets.resolver.api.CacheableOptingServlet.RequestFacet;
+
+/**
+ * The accepts decisions of a {@link CacheableOptingServlet}, keyed by the values
+ * of the request facets the servlet has declared.
+ */
+final class AcceptDecisions {
+
+    /** The maximum number of decisions kept per servlet. */
+    static final int MAX_DECISIONS = 64;
+
+    private static final char SEPARATOR = '\u0000';
+
+    private static final char NULL_VALUE = '\u0001';
+
+    private final CacheableOptingServlet servlet;
+
+    private final Set<RequestFacet> facets;
+
+    private final List<String> headers;
+
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+    AcceptDecisions(final CacheableOptingServlet servlet) {
+        this.servlet = servlet;
+        this.facets = EnumSet.noneOf(RequestFacet.class);
+        this.facets.addAll(servlet.getRequestFacets());
+        this.headers = new ArrayList<>(servlet.getRequestHeaders());
+        Collections.sort(this.headers);
+    }
+
+    /**
+     * Check whether the servlet accepts the request. The servlet is only asked if
+     * no decision for the values of the declared facets is known yet.
+     * @param request The request
+     * @return {@code true} if the servlet accepts the request
+     */
+    boolean accepts(final SlingJakartaHttpServletRequest request) {
+        final String key = getKey(request);
+        Boolean decision = this.decisions.get(key);
+        if (decision == null) {
+            decision = this.servlet.accepts(request);
+            if (this.decisions.size() < MAX_DECISIONS) {
+                this.decisions.putIfAbsent(key, decision);
+            }
+        }
+        return decision;
+    }
+
+    int size() {
+        return this.decisions.size();
+    }
+
+    private String getKey(final SlingJakartaHttpServletRequest request) {
+        final StringBuilder sb = new StringBuilder();
+        final RequestPathInfo pathInfo = request.getRequestPathInfo();
+        for (final RequestFacet facet : this.facets) {
+            switch (facet) {
+                case METHOD:
+                    append(sb, request.getMethod());
+                    break;
+                case SELECTORS:
+                    append(sb, pathInfo.getSelectorString());
+                    break;
+                case EXTENSION:
+                    append(sb, pathInfo.getExtension());
+                    break;
+                case SUFFIX:
+                    append(sb, pathInfo.getSuffix());
+                    break;
+            }
+        }
+        for (final String name : this.headers) {
+            final Enumeration<String> values = request.getHeaders(name);
+            if (values == null || !values.hasMoreElements()) {
+                append(sb, null);
+            } else {
+                while (values.hasMoreElements()) {
+                    append(sb, values.nextElement());
+                }
+                sb.append(SEPARATOR);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void append(final StringBuilder sb, final String value) {
+        if (value == null) {
+            sb.append(NULL_VALUE);
+        } else {
+            sb.append(value);
+        }
+        sb.append(SEPARATOR);
+    }
+}
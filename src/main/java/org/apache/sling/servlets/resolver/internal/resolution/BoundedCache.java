@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A bounded, concurrent map used by the {@link ResolutionCache}.
+ * <p>
+ * Entries are evicted with the CLOCK (second chance) algorithm: a read marks an
+ * entry as recently used and, once the map grows beyond its maximum size, the
+ * clock hand evicts the first entry which has not been used since the hand
+ * passed it the last time. This approximates an LRU policy while keeping reads
+ * free of any locking. Entries whose key is pinned are never evicted.
+ */
+final class BoundedCache<K, V> {
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    /** The nodes in clock order, may contain nodes which have been removed in the meantime. */
+    private final ConcurrentLinkedQueue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+
+    /** The number of entries in the map, maintained to avoid calling {@link Map#size()}. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** The (approximate) number of nodes in the clock queue. */
+    private final AtomicInteger clockSize = new AtomicInteger();
+
+    /** Only one thread moves the clock hand at a time. */
+    private final Lock evictionLock = new ReentrantLock();
+
+    private final int maximumSize;
+
+    private final Predicate<K> pinned;
+
+    BoundedCache(final int maximumSize, final Predicate<K> pinned) {
+        this.maximumSize = maximumSize;
+        this.pinned = pinned;
+        this.map = new ConcurrentHashMap<>(maximumSize);
+    }
+
+    /**
+     * Get the value for the key and mark the entry as recently used.
+     * @param key The key
+     * @return The value or {@code null}
+     */
+    V get(final K key) {
+        final Node<K, V> node = this.map.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * Add or replace the value for the key. If the cache exceeds its maximum size
+     * afterwards, entries are evicted.
+     * @param key The key
+     * @param value The value
+     * @return The number of evicted entries
+     */
+    int put(final K key, final V value) {
+        Node<K, V> node = this.map.get(key);
+        if (node == null) {
+            final Node<K, V> newNode = new Node<>(key, value);
+            node = this.map.putIfAbsent(key, newNode);
+            if (node == null) {
+                this.size.incrementAndGet();
+                this.clock.add(newNode);
+                this.clockSize.incrementAndGet();
+                return this.evictIfNecessary();
+            }
+        }
+        node.value = value;
+        node.referenced = true;
+        return 0;
+    }
+
+    /**
+     * Replace the value for the key if it is currently mapped to the old value
+     * @param key The key
+     * @param oldValue The expected value
+     * @param newValue The new value
+     * @return {@code true} if the value has been replaced
+     */
+    boolean replace(final K key, final V oldValue, final V newValue) {
+        final Node<K, V> node = this.map.get(key);
+        if (node == null) {
+            return false;
+        }
+        return Node.VALUE.compareAndSet(node, oldValue, newValue);
+    }
+
+    /**
+     * Perform the action for all entries
+     * @param action The action
+     */
+    void forEach(final BiConsumer<K, V> action) {
+        for (final Node<K, V> node : this.map.values()) {
+            action.accept(node.key, node.value);
+        }
+    }
+
+    /**
+     * Remove the entry for the key
+     * @param key The key
+     * @return The removed value or {@code null}
+     */
+    V remove(final K key) {
+        final Node<K, V> node = this.map.remove(key);
+        if (node != null) {
+            this.size.decrementAndGet();
+            return node.value;
+        }
+        return null;
+    }
+
+    /**
+     * Remove the entry for the key if it is mapped to the value
+     * @param key The key
+     * @param value The expected value
+     * @return {@code true} if the entry has been removed
+     */
+    boolean remove(final K key, final V value) {
+        final Node<K, V> node = this.map.get(key);
+        if (node != null && node.value == value && this.map.remove(key, node)) {
+            this.size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove all entries matching the filter
+     * @param filter The filter
+     * @return The number of removed entries
+     */
+    int removeIf(final BiPredicate<K, V> filter) {
+        int removed = 0;
+        for (final Map.Entry<K, Node<K, V>> entry : this.map.entrySet()) {
+            final Node<K, V> node = entry.getValue();
+            if (filter.test(entry.getKey(), node.value) && this.map.remove(entry.getKey(), node)) {
+                this.size.decrementAndGet();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all entries. The entries are removed one by one, so that the size stays
+     * correct if entries are added concurrently.
+     */
+    void clear() {
+        this.removeIf((key, value) -> true);
+        this.evictionLock.lock();
+        try {
+            this.compactClock();
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    int size() {
+        return Math.max(0, this.size.get());
+    }
+
+    int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    private int evictIfNecessary() {
+        if (this.size.get() <= this.maximumSize && this.clockSize.get() <= 2 * this.maximumSize) {
+            return 0;
+        }
+        // if another thread is already moving the clock hand, let it do the work
+        if (!this.evictionLock.tryLock()) {
+            return 0;
+        }
+        try {
+            if (this.clockSize.get() > 2 * this.maximumSize) {
+                // too many removed nodes in the queue
+                this.compactClock();
+            }
+            int evicted = 0;
+            // every node is visited at most twice: once to clear the reference flag, once to evict it
+            int budget = 2 * this.clockSize.get();
+            while (this.size.get() > this.maximumSize && budget-- > 0) {
+                final Node<K, V> node = this.clock.poll();
+                if (node == null) {
+                    break;
+                }
+                this.clockSize.decrementAndGet();
+                if (this.map.get(node.key) != node) {
+                    // removed in the meantime
+                    continue;
+                }
+                if (node.referenced || this.pinned.test(node.key)) {
+                    // second chance
+                    node.referenced = false;
+                    this.clock.add(node);
+                    this.clockSize.incrementAndGet();
+                } else if (this.map.remove(node.key, node)) {
+                    this.size.decrementAndGet();
+                    evicted++;
+                }
+            }
+            return evicted;
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the nodes of removed entries from the clock queue, must be called with the eviction lock
+     */
+    private void compactClock() {
+        this.clock.removeIf(n -> this.map.get(n.key) != n);
+        this.clockSize.set(this.clock.size());
+    }
+
+    private static final class Node<K, V> {
+
+        @SuppressWarnings("rawtypes")
+        static final AtomicReferenceFieldUpdater<Node, Object> VALUE =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "value");
+
+        final K key;
+
+        volatile V value;
+
+        volatile boolean referenced;
+
+        Node(final K key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
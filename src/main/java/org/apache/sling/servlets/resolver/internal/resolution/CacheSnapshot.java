@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonGenerator;
+
+/**
+ * A snapshot of the keys of the {@link ResolutionCache}, written to the bundle
+ * data area so that the cache can be warmed up after a restart. Only keys of
+ * kind {@link ResolutionKey.Kind#REQUEST} are written.
+ */
+public final class CacheSnapshot {
+
+    private static final String KIND_REQUEST = "request";
+
+    static final String FILE_NAME = "resolution-cache-keys.json";
+
+    private static final String PROP_KIND = "kind";
+
+    private static final String PROP_METHOD = "method";
+
+    private static final String PROP_EXTENSION = "extension";
+
+    private static final String PROP_SELECTORS = "selectors";
+
+    private static final String PROP_RESOURCE_TYPE = "resourceType";
+
+    private static final String PROP_RESOURCE_SUPER_TYPE = "resourceSuperType";
+
+    private CacheSnapshot() {
+        // no instances
+    }
+
+    /**
+     * Write the keys to the file. The file is replaced atomically if supported.
+     * @param file The file
+     * @param keys The keys
+     * @throws IOException If writing fails
+     */
+    static void write(final File file, final Collection<ResolutionKey> keys) throws IOException {
+        final File tmpFile = new File(file.getParentFile(), file.getName().concat(".tmp"));
+        try (final Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8);
+                final JsonGenerator generator = Json.createGenerator(writer)) {
+            generator.writeStartArray();
+            for (final ResolutionKey key : keys) {
+                if (key.getKind() != ResolutionKey.Kind.REQUEST) {
+                    continue;
+                }
+                generator.writeStartObject();
+                generator.write(PROP_KIND, KIND_REQUEST);
+                writeOptional(generator, PROP_METHOD, key.getName());
+                writeOptional(generator, PROP_EXTENSION, key.getExtension());
+                writeOptional(generator, PROP_SELECTORS, key.getSelectorString());
+                writeOptional(generator, PROP_RESOURCE_TYPE, key.getResourceType());
+                writeOptional(generator, PROP_RESOURCE_SUPER_TYPE, key.getResourceSuperType());
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+        }
+        try {
+            Files.move(
+                    tmpFile.toPath(),
+                    file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeOptional(final JsonGenerator generator, final String name, final String value) {
+        if (value != null) {
+            generator.write(name, value);
+        }
+    }
+
+    /**
+     * Read the keys from the file. As the default extensions might have changed
+     * since the snapshot has been written, the keys do not mark default extensions
+     * and need to be recreated with the current configuration.
+     * @param file The file
+     * @return The keys, empty if the file does not exist
+     * @throws IOException If reading fails or the file is invalid
+     */
+    static List<ResolutionKey> read(final File file) throws IOException {
+        final List<ResolutionKey> keys = new ArrayList<>();
+        if (!file.exists()) {
+            return keys;
+        }
+        try (final Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+                final JsonReader jsonReader = Json.createReader(reader)) {
+            for (final JsonValue value : jsonReader.readArray()) {
+                final JsonObject obj = value.asJsonObject();
+                final String method = getOptional(obj, PROP_METHOD);
+                final String resourceType = getOptional(obj, PROP_RESOURCE_TYPE);
+                if (!KIND_REQUEST.equals(getOptional(obj, PROP_KIND)) || method == null || resourceType == null) {
+                    continue;
+                }
+                keys.add(ResolutionKey.forRequest(
+                        method,
+                        getOptional(obj, PROP_EXTENSION),
+                        getOptional(obj, PROP_SELECTORS),
+                        resourceType,
+                        getOptional(obj, PROP_RESOURCE_SUPER_TYPE),
+                        Collections.emptySet()));
+            }
+        } catch (final JsonException | ClassCastException e) {
+            throw new IOException("Invalid cache snapshot " + file, e);
+        }
+        return keys;
+    }
+
+    private static String getOptional(final JsonObject obj, final String name) {
+        final JsonValue value = obj.get(name);
+        return value instanceof JsonString ? ((JsonString) value).getString() : null;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.Servlet;
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.servlets.JakartaOptingServlet;
+import org.apache.sling.servlets.resolver.api.CacheableOptingServlet;
+
+/**
+ * A cached resolution together with the paths it has been computed from.
+ * <p>
+ * The resolution consists of the ordered servlet candidates: zero or more
+ * opting servlets, optionally followed by the servlet which is used if none of
+ * the opting servlets accepts the request. A resolution without candidates
+ * records that no servlet has been found.
+ * <p>
+ * The decisions of opting servlets implementing {@link CacheableOptingServlet}
+ * are cached as well.
+ */
+public final class CachedResolution {
+
+    private final List<Servlet> candidates;
+
+    /** The script resources the candidates have been adapted from, per candidate, {@code null} for servlets */
+    private final Resource[] scripts;
+
+    /** The cached accepts decisions, per candidate, {@code null} if decisions can't be cached */
+    private final AcceptDecisions[] decisions;
+
+    /** The locations and script paths which have been looked at to compute the resolution. */
+    private final String[] dependencies;
+
+    /** The time in milliseconds this resolution has been marked stale, 0 if it is not stale. */
+    private final AtomicLong staleSince = new AtomicLong();
+
+    /** The number of times this resolution has been marked stale. */
+    private final AtomicInteger invalidations = new AtomicInteger();
+
+    private final AtomicBoolean revalidating = new AtomicBoolean();
+
+    /**
+     * Create a resolution
+     * @param candidates The ordered servlet candidates
+     * @param dependencies The locations and script paths the resolution has been computed from
+     */
+    public CachedResolution(final Collection<Servlet> candidates, final Collection<String> dependencies) {
+        this(candidates, null, dependencies);
+    }
+
+    /**
+     * Create a resolution
+     * @param candidates The ordered servlet candidates
+     * @param scripts The script resources the candidates have been adapted from, in the order of the
+     *            candidates, with {@code null} for candidates which are not scripts. Might be {@code null}.
+     * @param dependencies The locations and script paths the resolution has been computed from
+     */
+    public CachedResolution(
+            final Collection<Servlet> candidates, final List<Resource> scripts, final Collection<String> dependencies) {
+        this.candidates = Collections.unmodifiableList(new ArrayList<>(candidates));
+        this.scripts = new Resource[this.candidates.size()];
+        if (scripts != null) {
+            for (int i = 0; i < this.scripts.length && i < scripts.size(); i++) {
+                this.scripts[i] = scripts.get(i);
+            }
+        }
+        this.decisions = new AcceptDecisions[this.candidates.size()];
+        for (int i = 0; i < this.decisions.length; i++) {
+            if (this.candidates.get(i) instanceof CacheableOptingServlet cacheable) {
+                this.decisions[i] = new AcceptDecisions(cacheable);
+            }
+        }
+        this.dependencies = dependencies.toArray(new String[0]);
+    }
+
+    /**
+     * Get the servlet candidates in the order in which they are checked
+     * @return The unmodifiable list of candidates, empty if no servlet has been found
+     */
+    public List<Servlet> getCandidates() {
+        return this.candidates;
+    }
+
+    /**
+     * Get the script resource a candidate has been adapted from
+     * @param index The index of the candidate
+     * @return The script resource or {@code null} if the candidate is not a script
+     */
+    public Resource getScript(final int index) {
+        return this.scripts[index];
+    }
+
+    /**
+     * Check whether a candidate accepts the request. A candidate which is not an
+     * opting servlet accepts every request, an opting servlet is only asked if
+     * its decision is not cached.
+     * @param index The index of the candidate
+     * @param request The request, might be {@code null}
+     * @return {@code true} if the candidate accepts the request
+     */
+    public boolean accepts(final int index, final SlingJakartaHttpServletRequest request) {
+        final Servlet candidate = this.candidates.get(index);
+        if (!(candidate instanceof JakartaOptingServlet)) {
+            return true;
+        }
+        if (request == null) {
+            return false;
+        }
+        final AcceptDecisions candidateDecisions = this.decisions[index];
+        if (candidateDecisions != null) {
+            return candidateDecisions.accepts(request);
+        }
+        return ((JakartaOptingServlet) candidate).accepts(request);
+    }
+
+    String[] getDependencies() {
+        return this.dependencies;
+    }
+
+    /**
+     * Mark this resolution as stale. It might still be used while it is revalidated.
+     * @param now The current time in milliseconds
+     */
+    void markStale(final long now) {
+        this.staleSince.compareAndSet(0, now);
+        this.invalidations.incrementAndGet();
+    }
+
+    boolean isStale() {
+        return this.staleSince.get() != 0;
+    }
+
+    long getStaleSince() {
+        return this.staleSince.get();
+    }
+
+    int getInvalidations() {
+        return this.invalidations.get();
+    }
+
+    /**
+     * Start revalidating this resolution
+     * @return {@code false} if the resolution is already revalidated
+     */
+    boolean startRevalidation() {
+        return this.revalidating.compareAndSet(false, true);
+    }
+
+    void endRevalidation() {
+        this.revalidating.set(false);
+    }
+
+    /**
+     * Check whether one of the changed paths affects this resolution
+     * @param changedPaths The changed paths
+     * @return {@code true} if the resolution is affected
+     */
+    boolean isAffectedBy(final ChangedPaths changedPaths) {
+        for (final String dependency : this.dependencies) {
+            if (changedPaths.affects(dependency)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * A set of changed paths which can be matched against the dependencies
+ * of a {@link CachedResolution}.
+ */
+final class ChangedPaths {
+
+    private final NavigableSet<String> paths = new TreeSet<>();
+
+    ChangedPaths(final Collection<String> paths) {
+        this.paths.addAll(paths);
+    }
+
+    boolean isEmpty() {
+        return this.paths.isEmpty();
+    }
+
+    /**
+     * Check whether a dependency is affected by the changes. This is the case
+     * if the dependency itself, one of its ancestors or one of its descendants
+     * has changed.
+     * @param dependency The path of the dependency
+     * @return {@code true} if the dependency is affected
+     */
+    boolean affects(final String dependency) {
+        // the dependency or one of its ancestors changed
+        String path = dependency;
+        while (path != null) {
+            if (this.paths.contains(path)) {
+                return true;
+            }
+            path = getParent(path);
+        }
+        // a descendant of the dependency changed
+        final String prefix = dependency.endsWith("/") ? dependency : dependency.concat("/");
+        final String candidate = this.paths.ceiling(prefix);
+        return candidate != null && candidate.startsWith(prefix);
+    }
+
+    private static String getParent(final String path) {
+        final int pos = path.lastIndexOf('/');
+        if (pos > 0) {
+            return path.substring(0, pos);
+        } else if (pos == 0 && path.length() > 1) {
+            return "/";
+        }
+        return null;
+    }
+}
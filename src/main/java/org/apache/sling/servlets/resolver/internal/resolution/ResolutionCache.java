@@ -23,28 +23,53 @@ import javax.management.StandardMBean;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import jakarta.servlet.Servlet;
+import org.apache.sling.api.adapter.AdapterFactory;
+import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
 import org.apache.sling.api.resource.observation.ResourceChange;
 import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.resource.path.Path;
+import org.apache.sling.api.scripting.SlingScript;
 import org.apache.sling.servlets.resolver.internal.ResolverConfig;
-import org.apache.sling.servlets.resolver.internal.helper.AbstractResourceCollector;
+import org.apache.sling.servlets.resolver.internal.helper.ResourceTypeHierarchy;
+import org.apache.sling.servlets.resolver.internal.helper.ScriptExtensionRanks;
+import org.apache.sling.servlets.resolver.internal.helper.ScriptTreeIndex;
 import org.apache.sling.servlets.resolver.jmx.SlingServletResolverCacheMBean;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -67,21 +92,95 @@ import org.slf4j.LoggerFactory;
 public class ResolutionCache
         implements EventHandler, ResourceChangeListener, ExternalResourceChangeListener, ServiceListener {
 
+    /**
+     * The reason for flushing the cache
+     */
+    public enum FlushCause {
+        /** A change of resources the cached resolutions depend on */
+        RESOURCE_CHANGE,
+        /** A relevant script engine or adaption service event */
+        SERVICE_EVENT,
+        /** A servlet has been registered or unregistered */
+        SERVLET_REGISTRATION,
+        /** A flush requested through JMX */
+        JMX,
+        /** Activation or deactivation of a component */
+        LIFECYCLE,
+        /** The resource type hierarchy has been cleared because it was full */
+        INDEX_OVERFLOW
+    }
+
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private static final String PROPERTY_RESOURCE_SUPER_TYPE = "sling:resourceSuperType";
+
+    /** The adapter classes used to adapt resources during the resolution. */
+    private static final Set<String> SERVLET_ADAPTERS = new HashSet<>(
+            Arrays.asList(Servlet.class.getName(), javax.servlet.Servlet.class.getName(), SlingScript.class.getName()));
+
     @Reference
     private ScriptEngineManager scriptEngineManager;
 
-    private final AtomicReference<List<String>> scriptEnginesExtensions =
-            new AtomicReference<>(Collections.emptyList());
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    /** The script engine extensions, published together with their ranks. */
+    private final AtomicReference<ScriptExtensionRanks> scriptEnginesExtensions =
+            new AtomicReference<>(ScriptExtensionRanks.EMPTY);
 
     /** The script resolution cache. */
-    private final AtomicReference<Map<AbstractResourceCollector, Servlet>> cache = new AtomicReference<>();
+    private final AtomicReference<BoundedCache<ResolutionKey, CachedResolution>> cache = new AtomicReference<>();
+
+    /** The resolutions which are currently computed, concurrent requests for them wait for the result. */
+    private final ConcurrentMap<ResolutionKey, CompletableFuture<CachedResolution>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * The cache generation, incremented whenever cached resolutions are flushed or invalidated.
+     * A resolution is only cached if the generation has not changed while it has been computed.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The change generation, incremented for every relevant resource change and every flush, even
+     * if no cache is configured. Resolvers reading scripts only need a refresh once it changed.
+     */
+    private final AtomicLong changeGeneration = new AtomicLong();
+
+    /** The global index of the resource type hierarchy, maintained with the resource change events. */
+    private final ResourceTypeHierarchy resourceTypeHierarchy = new ResourceTypeHierarchy(this::onIndexOverflow);
+
+    /** The global index of the script folders, maintained with the resource change events. */
+    private final ScriptTreeIndex scriptTreeIndex = new ScriptTreeIndex();
+
+    /** The time in milliseconds after an invalidation during which no resolutions are cached. */
+    private volatile long invalidationDebounce;
+
+    /** No resolutions are cached before this time in milliseconds. */
+    private volatile long suppressPutsUntil;
+
+    private final ResolutionCacheStatistics statistics = new ResolutionCacheStatistics();
+
+    /** The file for the snapshot of the cache keys, {@code null} if snapshots are disabled. */
+    private volatile File snapshotFile;
+
+    /** The keys read from the snapshot at activation. */
+    private volatile List<ResolutionKey> snapshotKeys = Collections.emptyList();
+
+    private volatile ScheduledExecutorService snapshotExecutor;
 
     /** The cache size. */
     private volatile int cacheSize;
 
-    /** Flag to log warning if cache size exceed only once. */
+    /** The time in milliseconds to wait for a resolution computed by another thread. */
+    private volatile int loadTimeout;
+
+    /** The maximum time in milliseconds a stale resolution is used. */
+    private volatile long maxStaleness;
+
+    /** The executor revalidating stale resolutions, {@code null} if stale resolutions are not used. */
+    private volatile ExecutorService revalidationExecutor;
+
+    /** Flag to log warning if entries are evicted only once. */
     private volatile boolean logCacheSizeWarning;
 
     /** Registration as event handler. */
@@ -90,6 +189,12 @@ public class ResolutionCache
     private final AtomicReference<ServiceRegistration<ResourceChangeListener>> resourceListenerRegistration =
             new AtomicReference<>();
 
+    private final AtomicReference<ServiceRegistration<ResourceChangeListener>> resourceTypeListenerRegistration =
+            new AtomicReference<>();
+
+    /** The search paths and servlet roots, changes below these paths can affect any resolution. */
+    private volatile Path[] scriptPaths = new Path[0];
+
     private final AtomicReference<ServiceRegistration<SlingServletResolverCacheMBean>> mbeanRegistration =
             new AtomicReference<>();
 
@@ -101,10 +206,41 @@ public class ResolutionCache
     protected void activate(final BundleContext context, final ResolverConfig config) throws InvalidSyntaxException {
         // create cache - if a cache size is configured
         this.cacheSize = config.servletresolver_cacheSize();
+        this.loadTimeout = config.servletresolver_cacheLoadTimeout();
+        this.invalidationDebounce = config.servletresolver_cacheInvalidationDebounce();
+        this.suppressPutsUntil = 0;
         if (this.cacheSize > 5) {
-            this.cache.set(new ConcurrentHashMap<>(cacheSize));
+            final Set<String> pinnedResourceTypes = new HashSet<>();
+            if (config.servletresolver_cachePinnedResourceTypes() != null) {
+                pinnedResourceTypes.addAll(Arrays.asList(config.servletresolver_cachePinnedResourceTypes()));
+            }
+            this.cache.set(new BoundedCache<>(cacheSize, key -> pinnedResourceTypes.contains(key.getResourceType())));
             this.logCacheSizeWarning = true;
 
+            if (config.servletresolver_cacheStaleWhileRevalidate()) {
+                this.maxStaleness = config.servletresolver_cacheMaxStaleness();
+                this.revalidationExecutor = createRevalidationExecutor(cacheSize);
+            }
+
+            // read the snapshot of the last run and write new snapshots periodically
+            final int snapshotInterval = config.servletresolver_cacheSnapshotInterval();
+            final File file = snapshotInterval > 0 ? context.getDataFile(CacheSnapshot.FILE_NAME) : null;
+            if (file != null) {
+                this.snapshotFile = file;
+                try {
+                    this.snapshotKeys = CacheSnapshot.read(file);
+                } catch (final IOException e) {
+                    logger.warn("Unable to read cache snapshot from {}", file, e);
+                }
+                this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    final Thread thread = new Thread(r, "Apache Sling Servlet Resolver Cache Snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                this.snapshotExecutor.scheduleWithFixedDelay(
+                        this::writeSnapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+            }
+
             // register MBean
             try {
                 Dictionary<String, String> mbeanProps = new Hashtable<>(); // NOSONAR
@@ -125,28 +261,51 @@ public class ResolutionCache
         props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
 
         // the event listener is for updating the script engine extensions
-        props.put(EventConstants.EVENT_TOPIC, new String[] {
-            "javax/script/ScriptEngineFactory/*", "org/apache/sling/scripting/core/BindingsValuesProvider/*"
-        });
+        props.put(EventConstants.EVENT_TOPIC, new String[] {"javax/script/ScriptEngineFactory/*"});
 
         this.eventHandlerRegistration.set(context.registerService(EventHandler.class, this, props));
 
-        // we need a resource change listener to invalidate the cache
-        if (this.cache != null) {
-            final String[] listenerPaths = new String[config.servletresolver_paths().length];
-            for (int i = 0; i < config.servletresolver_paths().length; i++) {
-                final Path p = new Path(config.servletresolver_paths()[i]);
-                listenerPaths[i] = p.getPath();
-            }
+        // we need resource change listeners to invalidate the cache and to track the change generation,
+        // all changes below the search paths and servlet roots are relevant
+        final Set<String> paths = getScriptPaths(config);
+        final ResourceResolverFactory factory = this.resourceResolverFactory;
+        final String[] searchPath = factory != null ? factory.getSearchPath().toArray(new String[0]) : null;
+        final int indexSize = Math.max(config.servletresolver_cacheIndexSize(), 1);
+        this.resourceTypeHierarchy.reset(searchPath, indexSize);
+        this.scriptTreeIndex.reset(searchPath, indexSize);
+        final List<Path> localScriptPaths = new ArrayList<>();
+        for (final String path : paths) {
+            localScriptPaths.add(new Path(path));
+        }
+        this.scriptPaths = localScriptPaths.toArray(new Path[0]);
+        final String[] listenerPaths = new String[localScriptPaths.size()];
+        for (int i = 0; i < listenerPaths.length; i++) {
+            listenerPaths[i] = localScriptPaths.get(i).getPath();
+        }
 
-            final Dictionary<String, Object> listenerProps = new Hashtable<>(); // NOSONAR
-            listenerProps.put(Constants.SERVICE_DESCRIPTION, "Apache Sling Servlet Resolver Resource Listener");
-            listenerProps.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
-            listenerProps.put(ResourceChangeListener.PATHS, listenerPaths);
-            this.resourceListenerRegistration.set(
-                    context.registerService(ResourceChangeListener.class, this, listenerProps));
+        final Dictionary<String, Object> listenerProps = new Hashtable<>(); // NOSONAR
+        listenerProps.put(Constants.SERVICE_DESCRIPTION, "Apache Sling Servlet Resolver Resource Listener");
+        listenerProps.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        listenerProps.put(ResourceChangeListener.PATHS, listenerPaths);
+        this.resourceListenerRegistration.set(
+                context.registerService(ResourceChangeListener.class, this, listenerProps));
+
+        // outside of these paths only resource types with an absolute path and
+        // changes of the resource super type can affect the resolution
+        final String[] typeListenerPaths = new String[config.servletresolver_paths().length];
+        for (int i = 0; i < config.servletresolver_paths().length; i++) {
+            final Path p = new Path(config.servletresolver_paths()[i]);
+            typeListenerPaths[i] = p.getPath();
         }
 
+        final Dictionary<String, Object> typeListenerProps = new Hashtable<>(); // NOSONAR
+        typeListenerProps.put(Constants.SERVICE_DESCRIPTION, "Apache Sling Servlet Resolver Resource Type Listener");
+        typeListenerProps.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        typeListenerProps.put(ResourceChangeListener.PATHS, typeListenerPaths);
+        typeListenerProps.put(ResourceChangeListener.PROPERTY_NAMES_HINT, PROPERTY_RESOURCE_SUPER_TYPE);
+        this.resourceTypeListenerRegistration.set(context.registerService(
+                ResourceChangeListener.class, new ResourceTypeChangeListener(), typeListenerProps));
+
         context.addServiceListener(
                 this, "(".concat(Constants.OBJECTCLASS).concat("=org.apache.sling.adapter.Adaption)"));
 
@@ -165,7 +324,24 @@ public class ResolutionCache
     @Deactivate
     protected void deactivate(final BundleContext context) {
         context.removeServiceListener(this);
+
+        final ScheduledExecutorService localSnapshotExecutor = this.snapshotExecutor;
+        if (localSnapshotExecutor != null) {
+            this.snapshotExecutor = null;
+            localSnapshotExecutor.shutdownNow();
+            this.writeSnapshot();
+        }
+        this.snapshotFile = null;
+        this.snapshotKeys = Collections.emptyList();
         this.cache.set(null);
+        this.resourceTypeHierarchy.reset(null);
+        this.scriptTreeIndex.reset(null);
+
+        final ExecutorService executor = this.revalidationExecutor;
+        if (executor != null) {
+            this.revalidationExecutor = null;
+            executor.shutdownNow();
+        }
 
         // unregister mbean
         ServiceRegistration<SlingServletResolverCacheMBean> mbRegistration = this.mbeanRegistration.get();
@@ -181,12 +357,97 @@ public class ResolutionCache
             this.eventHandlerRegistration.set(null);
         }
 
-        // unregister event handler
+        // unregister resource change listeners
         ServiceRegistration<ResourceChangeListener> rlRegistration = this.resourceListenerRegistration.get();
         if (rlRegistration != null) {
             rlRegistration.unregister();
             this.resourceListenerRegistration.set(null);
         }
+        ServiceRegistration<ResourceChangeListener> rtlRegistration = this.resourceTypeListenerRegistration.get();
+        if (rtlRegistration != null) {
+            rtlRegistration.unregister();
+            this.resourceTypeListenerRegistration.set(null);
+        }
+    }
+
+    /**
+     * Create the executor for revalidating stale resolutions: a single daemon thread
+     * with a bounded queue. If the queue is full, stale resolutions are revalidated later.
+     */
+    private static ExecutorService createRevalidationExecutor(final int queueSize) {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueSize), r -> {
+            final Thread thread = new Thread(r, "Apache Sling Servlet Resolver Cache Revalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Write the keys of the cached resolutions to the snapshot file. If the cache
+     * is empty, the previous snapshot is kept.
+     */
+    public void writeSnapshot() {
+        final File file = this.snapshotFile;
+        final BoundedCache<ResolutionKey, CachedResolution> localCache = this.cache.get();
+        if (file == null || localCache == null) {
+            return;
+        }
+        final List<ResolutionKey> keys = new ArrayList<>();
+        localCache.forEach((key, resolution) -> {
+            if (key.getKind() == ResolutionKey.Kind.REQUEST) {
+                keys.add(key);
+            }
+        });
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            CacheSnapshot.write(file, keys);
+            logger.debug("Wrote {} keys to cache snapshot {}", keys.size(), file);
+        } catch (final IOException e) {
+            logger.warn("Unable to write cache snapshot to {}", file, e);
+        }
+    }
+
+    /**
+     * Get the keys of the snapshot written before the last restart. The resolutions
+     * for these keys should be computed to warm up the cache.
+     * @return The keys, empty if there is no snapshot
+     */
+    public List<ResolutionKey> getSnapshotKeys() {
+        return this.snapshotKeys;
+    }
+
+    /**
+     * Get the paths below which scripts and servlets are searched: the search paths
+     * of the resource resolver and the servlet root (if it is a path).
+     */
+    private Set<String> getScriptPaths(final ResolverConfig config) {
+        final Set<String> paths = new LinkedHashSet<>();
+        final ResourceResolverFactory factory = this.resourceResolverFactory;
+        if (factory != null) {
+            paths.addAll(factory.getSearchPath());
+        }
+        final String servletRoot = config.servletresolver_servletRoot();
+        if (servletRoot != null && servletRoot.startsWith("/")) {
+            paths.add(servletRoot);
+        }
+        if (paths.isEmpty()) {
+            paths.add("/");
+        }
+        return paths;
+    }
+
+    /**
+     * Check whether the path is below one of the search paths or servlet roots
+     */
+    private boolean isScriptPath(final String path) {
+        for (final Path p : this.scriptPaths) {
+            if (p.matches(path)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -194,10 +455,22 @@ public class ResolutionCache
      * @return The list of script engine extensions
      */
     public List<String> getScriptEngineExtensions() {
+        return this.scriptEnginesExtensions.get().getExtensions();
+    }
+
+    /**
+     * Get the script engine extensions together with their ranks
+     * @return The script engine extension ranks
+     */
+    public ScriptExtensionRanks getScriptExtensionRanks() {
         return this.scriptEnginesExtensions.get();
     }
 
-    private void updateScriptEngineExtensions() {
+    /**
+     * Update the list of script engine extensions
+     * @return {@code true} if the list has changed
+     */
+    private boolean updateScriptEngineExtensions() {
         final ScriptEngineManager localScriptEngineManager = scriptEngineManager;
         // use local variable to avoid racing with deactivate
         if (localScriptEngineManager != null) {
@@ -205,8 +478,12 @@ public class ResolutionCache
             for (ScriptEngineFactory factory : localScriptEngineManager.getEngineFactories()) {
                 newScriptEnginesExtensions.addAll(factory.getExtensions());
             }
-            this.scriptEnginesExtensions.set(Collections.unmodifiableList(newScriptEnginesExtensions));
+            // the order of the extensions is relevant for the resolution, therefore compare the lists
+            final ScriptExtensionRanks oldScriptEnginesExtensions =
+                    this.scriptEnginesExtensions.getAndSet(ScriptExtensionRanks.of(newScriptEnginesExtensions));
+            return !oldScriptEnginesExtensions.getExtensions().equals(newScriptEnginesExtensions);
         }
+        return false;
     }
 
     /**
@@ -215,35 +492,218 @@ public class ResolutionCache
     @Override
     public void handleEvent(final Event event) {
         // return immediately if already deactivated
-        if (this.eventHandlerRegistration == null) {
+        if (this.eventHandlerRegistration.get() == null) {
             return;
         }
-        flushCache();
-        updateScriptEngineExtensions();
+        // a script engine change only affects the resolution if the extensions change
+        if (updateScriptEngineExtensions()) {
+            flushCache(FlushCause.SERVICE_EVENT);
+        }
     }
 
     @Override
     public void serviceChanged(final ServiceEvent event) {
-        this.handleEvent(null);
+        // return immediately if already deactivated
+        if (this.eventHandlerRegistration.get() == null) {
+            return;
+        }
+        if (isServletAdaption(event.getServiceReference())) {
+            flushCache(FlushCause.SERVICE_EVENT);
+        }
     }
 
-    public void flushCache() {
+    /**
+     * Check whether an adaption might affect the adaption of resources to servlets or scripts.
+     * If the adaption does not declare its adapters, it is considered relevant.
+     */
+    static boolean isServletAdaption(final ServiceReference<?> reference) {
+        final Object adapters = reference != null ? reference.getProperty(AdapterFactory.ADAPTER_CLASSES) : null;
+        if (adapters == null) {
+            return true;
+        }
+        final Collection<?> names;
+        if (adapters instanceof String[]) {
+            names = Arrays.asList((String[]) adapters);
+        } else if (adapters instanceof Collection) {
+            names = (Collection<?>) adapters;
+        } else {
+            names = Collections.singleton(adapters);
+        }
+        for (final Object name : names) {
+            if (SERVLET_ADAPTERS.contains(String.valueOf(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the global index of the resource type hierarchy
+     * @return The index
+     */
+    public ResourceTypeHierarchy getResourceTypeHierarchy() {
+        return this.resourceTypeHierarchy;
+    }
+
+    /**
+     * Get the global index of the script folders
+     * @return The index
+     */
+    public ScriptTreeIndex getScriptTreeIndex() {
+        return this.scriptTreeIndex;
+    }
+
+    /**
+     * Get the change generation. It changes whenever a relevant resource has changed or the
+     * cache has been flushed, independent of whether a cache is configured.
+     * @return The change generation
+     */
+    public long getChangeGeneration() {
+        return this.changeGeneration.get();
+    }
+
+    /**
+     * Remove all cached resolutions
+     * @param cause The reason for the flush
+     */
+    public void flushCache(final FlushCause cause) {
+        this.changeGeneration.incrementAndGet();
+        this.resourceTypeHierarchy.clear();
+        this.scriptTreeIndex.clear();
         // use local variable to avoid racing with deactivate
-        final Map<AbstractResourceCollector, Servlet> localCache = this.cache.get();
+        final BoundedCache<ResolutionKey, CachedResolution> localCache = this.cache.get();
         if (localCache != null) {
+            this.statistics.flushed(cause);
+            this.startInvalidation();
             localCache.clear();
             this.logCacheSizeWarning = true;
         }
     }
 
+    /**
+     * The resource type hierarchy has been cleared because it was full. The cached resolutions
+     * depend on the dropped entries, so they are removed as well and cached again along with
+     * the entries they are computed from.
+     */
+    private void onIndexOverflow() {
+        // use local variable to avoid racing with deactivate
+        final BoundedCache<ResolutionKey, CachedResolution> localCache = this.cache.get();
+        if (localCache != null) {
+            this.statistics.flushed(FlushCause.INDEX_OVERFLOW);
+            // resolutions computed from the dropped entries are not cached
+            this.generation.incrementAndGet();
+            localCache.clear();
+            logger.debug("Flushed the cache as the resource type hierarchy has been full");
+        }
+    }
+
     @Override
     public void onChange(final List<ResourceChange> changes) {
         // return immediately if already deactivated
-        if (resourceListenerRegistration == null || changes.isEmpty()) {
+        if (this.resourceListenerRegistration.get() == null || changes.isEmpty()) {
             return;
         }
-        // we invalidate the cache once, regardless of the number of changes
-        flushCache();
+        final List<String> paths = new ArrayList<>(changes.size());
+        for (final ResourceChange change : changes) {
+            paths.add(change.getPath());
+        }
+        invalidate(paths);
+    }
+
+    /**
+     * Increment the generation, so that resolutions computed before are not cached,
+     * and suppress caching for the debounce window.
+     */
+    private void startInvalidation() {
+        this.generation.incrementAndGet();
+        final long debounce = this.invalidationDebounce;
+        if (debounce > 0) {
+            this.suppressPutsUntil = System.currentTimeMillis() + debounce;
+        }
+    }
+
+    /**
+     * Invalidate the resolutions which depend on one of the changed paths
+     * @param paths The changed paths
+     */
+    private void invalidate(final List<String> paths) {
+        if (!paths.isEmpty()) {
+            this.changeGeneration.incrementAndGet();
+            this.resourceTypeHierarchy.onChange(paths);
+            this.scriptTreeIndex.onChange(paths);
+        }
+        final BoundedCache<ResolutionKey, CachedResolution> localCache = this.cache.get();
+        if (localCache != null && !paths.isEmpty()) {
+            this.statistics.flushed(FlushCause.RESOURCE_CHANGE);
+            this.startInvalidation();
+            final ChangedPaths changedPaths = new ChangedPaths(paths);
+            if (this.revalidationExecutor != null) {
+                final long now = System.currentTimeMillis();
+                localCache.forEach((key, resolution) -> {
+                    if (resolution.isAffectedBy(changedPaths)) {
+                        resolution.markStale(now);
+                    }
+                });
+                logger.debug("Marked cached resolutions stale for {} changed paths", paths.size());
+            } else {
+                final int removed = localCache.removeIf((key, resolution) -> resolution.isAffectedBy(changedPaths));
+                logger.debug("Invalidated {} cached resolutions for {} changed paths", removed, paths.size());
+            }
+        }
+    }
+
+    /**
+     * Listener for changes outside of the search paths and servlet roots. Such a change
+     * can only affect a resolution if it modifies the resource super type of a resource
+     * type node, or if it adds or removes a location of a resource type with an absolute path.
+     * Both are only the case for paths recorded in the resource type hierarchy.
+     */
+    private final class ResourceTypeChangeListener implements ResourceChangeListener, ExternalResourceChangeListener {
+
+        @Override
+        public void onChange(final List<ResourceChange> changes) {
+            // return immediately if already deactivated
+            if (resourceTypeListenerRegistration.get() == null) {
+                return;
+            }
+            final List<String> paths = new ArrayList<>();
+            for (final ResourceChange change : changes) {
+                if (!isScriptPath(change.getPath()) && isRelevant(change)) {
+                    paths.add(change.getPath());
+                }
+            }
+            invalidate(paths);
+        }
+
+        private boolean isRelevant(final ResourceChange change) {
+            if (change.getType() == ResourceChange.ChangeType.CHANGED && isSuperTypeUnchanged(change)) {
+                return false;
+            }
+            // only the resource types and locations recorded in the hierarchy are used by resolutions
+            return resourceTypeHierarchy.isAffectedBy(change.getPath());
+        }
+
+        /**
+         * Check whether the property names reported by a change don't include the resource super type.
+         * The property names are deprecated as not all providers report them, but if they are reported,
+         * they tell which changes don't need to be looked up in the hierarchy.
+         * @return {@code true} if property names are reported and don't include the resource super type
+         */
+        @SuppressWarnings("deprecation")
+        private boolean isSuperTypeUnchanged(final ResourceChange change) {
+            final Set<String> changed = change.getChangedPropertyNames();
+            final Set<String> added = change.getAddedPropertyNames();
+            final Set<String> removed = change.getRemovedPropertyNames();
+            if (changed == null && added == null && removed == null) {
+                // the provider does not report property names
+                return false;
+            }
+            return !containsSuperType(changed) && !containsSuperType(added) && !containsSuperType(removed);
+        }
+
+        private boolean containsSuperType(final Set<String> names) {
+            return names != null && names.contains(PROPERTY_RESOURCE_SUPER_TYPE);
+        }
     }
 
     class ServletResolverCacheMBeanImpl extends StandardMBean implements SlingServletResolverCacheMBean {
@@ -255,40 +715,291 @@ public class ResolutionCache
         @Override
         public int getCacheSize() {
             // use local variable to avoid racing with deactivate
-            final Map<AbstractResourceCollector, Servlet> localCache = cache.get();
+            final BoundedCache<ResolutionKey, CachedResolution> localCache = cache.get();
             return localCache != null ? localCache.size() : 0;
         }
 
         @Override
         public void flushCache() {
-            ResolutionCache.this.flushCache();
+            ResolutionCache.this.flushCache(FlushCause.JMX);
         }
 
         @Override
         public int getMaximumCacheSize() {
             return cacheSize;
         }
+
+        @Override
+        public int getResourceTypeHierarchySize() {
+            return resourceTypeHierarchy.size();
+        }
+
+        @Override
+        public int getScriptTreeIndexSize() {
+            return scriptTreeIndex.size();
+        }
+
+        @Override
+        public long getHitCount() {
+            return statistics.hits.sum();
+        }
+
+        @Override
+        public long getNegativeHitCount() {
+            return statistics.negativeHits.sum();
+        }
+
+        @Override
+        public long getMissCount() {
+            return statistics.misses.sum();
+        }
+
+        @Override
+        public long getRejectedPutCount() {
+            return statistics.rejectedPuts.sum();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return statistics.evictions.sum();
+        }
+
+        @Override
+        public long getResourceChangeInvalidationCount() {
+            return statistics.getFlushCount(FlushCause.RESOURCE_CHANGE);
+        }
+
+        @Override
+        public long getServiceEventFlushCount() {
+            return statistics.getFlushCount(FlushCause.SERVICE_EVENT);
+        }
+
+        @Override
+        public long getServletRegistrationFlushCount() {
+            return statistics.getFlushCount(FlushCause.SERVLET_REGISTRATION);
+        }
+
+        @Override
+        public long getJmxFlushCount() {
+            return statistics.getFlushCount(FlushCause.JMX);
+        }
+
+        @Override
+        public long getLifecycleFlushCount() {
+            return statistics.getFlushCount(FlushCause.LIFECYCLE);
+        }
+
+        @Override
+        public long getIndexOverflowFlushCount() {
+            return statistics.getFlushCount(FlushCause.INDEX_OVERFLOW);
+        }
+
+        @Override
+        public long[] getMissTimeHistogramBounds() {
+            return ResolutionCacheStatistics.MISS_TIME_BOUNDS.clone();
+        }
+
+        @Override
+        public long[] getMissTimeHistogram() {
+            return statistics.getMissTimeHistogram();
+        }
     }
 
-    public Servlet get(final AbstractResourceCollector context) {
-        final Map<AbstractResourceCollector, Servlet> localCache = this.cache.get();
+    /**
+     * Get a cached resolution
+     * @param key The key of the resolution
+     * @return The cached resolution or {@code null} if the resolution is not cached
+     */
+    public CachedResolution get(final ResolutionKey key) {
+        final BoundedCache<ResolutionKey, CachedResolution> localCache = this.cache.get();
         if (localCache != null) {
-            return localCache.get(context);
+            return localCache.get(key);
         }
         return null;
     }
 
-    public void put(final AbstractResourceCollector context, final Servlet candidate) {
-        final Map<AbstractResourceCollector, Servlet> localCache = this.cache.get();
-        if (localCache != null) {
-            if (localCache.size() < this.cacheSize) {
-                localCache.put(context, candidate);
-            } else if (this.logCacheSizeWarning) {
-                this.logCacheSizeWarning = false;
-                logger.warn(
-                        "Script cache has reached its limit of {}. You might want to increase the cache size for the servlet resolver.",
-                        this.cacheSize);
+    /**
+     * Get a resolution from the cache or compute it. If the resolution is currently
+     * computed by another thread, wait for its result instead of computing it again.
+     * If the result is not available within the configured timeout, the resolution
+     * is computed by the calling thread.
+     * <p>
+     * A stale resolution is returned as long as it has not exceeded the maximum staleness,
+     * it is then revalidated in the background.
+     * @param key The key of the resolution
+     * @param loader The function computing the resolution in the calling thread
+     * @param revalidator The function computing the resolution in a background thread,
+     *     it must not depend on the resources of the current request
+     * @return The resolution
+     */
+    public CachedResolution resolve(
+            final ResolutionKey key,
+            final Supplier<CachedResolution> loader,
+            final Supplier<CachedResolution> revalidator) {
+        final BoundedCache<ResolutionKey, CachedResolution> localCache = this.cache.get();
+        if (localCache == null) {
+            return loader.get();
+        }
+        final long currentGeneration = this.generation.get();
+        CachedResolution resolution = localCache.get(key);
+        if (resolution != null) {
+            if (!resolution.isStale()) {
+                this.hit(resolution);
+                return resolution;
+            }
+            if (System.currentTimeMillis() - resolution.getStaleSince() <= this.maxStaleness) {
+                this.hit(resolution);
+                this.revalidate(localCache, key, resolution, revalidator);
+                return resolution;
+            }
+        }
+        if (this.loadTimeout <= 0) {
+            resolution = this.load(loader);
+            this.put(key, resolution, currentGeneration);
+            return resolution;
+        }
+        final CompletableFuture<CachedResolution> future = new CompletableFuture<>();
+        final CompletableFuture<CachedResolution> running = this.loading.putIfAbsent(key, future);
+        if (running != null) {
+            resolution = this.await(running);
+            if (resolution != null) {
+                this.hit(resolution);
+                return resolution;
+            }
+            return this.load(loader);
+        }
+        try {
+            // the resolution might have been added since we looked it up
+            resolution = localCache.get(key);
+            if (resolution == null || resolution.isStale()) {
+                resolution = this.load(loader);
+                this.put(key, resolution, currentGeneration);
             }
+            future.complete(resolution);
+            return resolution;
+        } catch (final RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Revalidate a stale resolution in the background. The fresh resolution only
+     * replaces the stale one if it has not been invalidated again in the meantime.
+     */
+    private void revalidate(
+            final BoundedCache<ResolutionKey, CachedResolution> localCache,
+            final ResolutionKey key,
+            final CachedResolution stale,
+            final Supplier<CachedResolution> revalidator) {
+        final ExecutorService executor = this.revalidationExecutor;
+        if (executor == null || !stale.startRevalidation()) {
+            return;
+        }
+        final int invalidations = stale.getInvalidations();
+        try {
+            executor.execute(() -> {
+                try {
+                    final CachedResolution fresh = revalidator.get();
+                    if (fresh != null && stale.getInvalidations() == invalidations) {
+                        localCache.replace(key, stale, fresh);
+                    }
+                } catch (final RuntimeException e) {
+                    logger.warn("Unable to revalidate stale resolution", e);
+                } finally {
+                    stale.endRevalidation();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            stale.endRevalidation();
+        }
+    }
+
+    private void hit(final CachedResolution resolution) {
+        this.statistics.hits.increment();
+        if (resolution.getCandidates().isEmpty()) {
+            this.statistics.negativeHits.increment();
+        }
+    }
+
+    /**
+     * Compute a resolution which is not cached
+     */
+    private CachedResolution load(final Supplier<CachedResolution> loader) {
+        this.statistics.misses.increment();
+        final long start = System.nanoTime();
+        try {
+            return loader.get();
+        } finally {
+            this.statistics.missTime(System.nanoTime() - start);
+        }
+    }
+
+    private CachedResolution await(final CompletableFuture<CachedResolution> running) {
+        try {
+            return running.get(this.loadTimeout, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final TimeoutException e) {
+            logger.debug("Timeout while waiting for resolution, computing it again");
+        } catch (final ExecutionException e) {
+            logger.debug("Resolution failed in another thread, computing it again", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Cache a resolution
+     * @param key The key of the resolution
+     * @param candidates The ordered servlet candidates, see {@link CachedResolution#getCandidates()}
+     * @param dependencies The locations and script paths the resolution has been computed from.
+     *     The cached resolution is invalidated if one of these paths, one of their ancestors or
+     *     one of their descendants changes.
+     */
+    public void put(
+            final ResolutionKey key, final Collection<Servlet> candidates, final Collection<String> dependencies) {
+        this.put(key, new CachedResolution(candidates, dependencies), this.generation.get());
+    }
+
+    /**
+     * Cache a resolution unless the cache has been flushed or invalidated since the
+     * resolution has been computed
+     * @param key The key of the resolution
+     * @param resolution The resolution
+     * @param computedGeneration The generation of the cache when the computation started
+     */
+    private void put(final ResolutionKey key, final CachedResolution resolution, final long computedGeneration) {
+        final BoundedCache<ResolutionKey, CachedResolution> localCache = this.cache.get();
+        if (localCache == null) {
+            return;
+        }
+        if (this.generation.get() != computedGeneration) {
+            logger.debug("Not caching resolution computed before the cache has been invalidated");
+            this.statistics.rejectedPuts.increment();
+            return;
+        }
+        if (System.currentTimeMillis() < this.suppressPutsUntil) {
+            logger.debug("Not caching resolution while invalidations are debounced");
+            this.statistics.rejectedPuts.increment();
+            return;
+        }
+        final int evicted = localCache.put(key, resolution);
+        if (this.generation.get() != computedGeneration) {
+            // the cache has been invalidated while adding the resolution
+            localCache.remove(key, resolution);
+            this.statistics.rejectedPuts.increment();
+            return;
+        }
+        if (evicted > 0) {
+            this.statistics.evictions.add(evicted);
+        }
+        if (evicted > 0 && this.logCacheSizeWarning) {
+            this.logCacheSizeWarning = false;
+            logger.warn(
+                    "Script cache has reached its limit of {} and evicts entries. You might want to increase the cache size for the servlet resolver.",
+                    this.cacheSize);
         }
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache.FlushCause;
+
+/**
+ * The statistics of the {@link ResolutionCache}. All counters are {@link LongAdder}s,
+ * so updating them does not cause contention between request threads.
+ */
+final class ResolutionCacheStatistics {
+
+    /** The upper bounds of the buckets of the miss time histogram in microseconds. */
+    static final long[] MISS_TIME_BOUNDS = {
+        100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000, Long.MAX_VALUE
+    };
+
+    final LongAdder hits = new LongAdder();
+
+    final LongAdder negativeHits = new LongAdder();
+
+    final LongAdder misses = new LongAdder();
+
+    final LongAdder rejectedPuts = new LongAdder();
+
+    final LongAdder evictions = new LongAdder();
+
+    private final Map<FlushCause, LongAdder> flushes = new EnumMap<>(FlushCause.class);
+
+    private final LongAdder[] missTimes = new LongAdder[MISS_TIME_BOUNDS.length];
+
+    ResolutionCacheStatistics() {
+        for (final FlushCause cause : FlushCause.values()) {
+            this.flushes.put(cause, new LongAdder());
+        }
+        for (int i = 0; i < this.missTimes.length; i++) {
+            this.missTimes[i] = new LongAdder();
+        }
+    }
+
+    void flushed(final FlushCause cause) {
+        this.flushes.get(cause).increment();
+    }
+
+    long getFlushCount(final FlushCause cause) {
+        return this.flushes.get(cause).sum();
+    }
+
+    /**
+     * Record the time it took to compute a resolution which was not cached
+     * @param nanos The time in nanoseconds
+     */
+    void missTime(final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int index = 0;
+        while (micros > MISS_TIME_BOUNDS[index]) {
+            index++;
+        }
+        this.missTimes[index].increment();
+    }
+
+    long[] getMissTimeHistogram() {
+        final long[] result = new long[this.missTimes.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.missTimes[i].sum();
+        }
+        return result;
+    }
+}
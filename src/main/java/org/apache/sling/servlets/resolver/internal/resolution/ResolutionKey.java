@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.Collection;
+import java.util.Objects;
+
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.servlets.ServletResolverConstants;
+
+/**
+ * The immutable key of a cached resolution. It holds exactly the values the
+ * resolution depends on and is created without building the resource collector,
+ * which is only needed if the resolution is not cached.
+ */
+public final class ResolutionKey {
+
+    /**
+     * The kind of resolution
+     */
+    public enum Kind {
+        /** Resolution for a request, based on method, selectors and extension */
+        REQUEST,
+        /** Resolution of a named script */
+        SCRIPT,
+        /** Resolution for a method name, like the error handler resolution */
+        METHOD
+    }
+
+    private final Kind kind;
+
+    private final String name;
+
+    private final String baseResourceType;
+
+    private final String resourceType;
+
+    private final String resourceSuperType;
+
+    private final String extension;
+
+    private final String selectors;
+
+    private final boolean defaultExtension;
+
+    private final int hashCode;
+
+    private ResolutionKey(
+            final Kind kind,
+            final String name,
+            final String baseResourceType,
+            final String resourceType,
+            final String resourceSuperType,
+            final String extension,
+            final String selectors,
+            final boolean defaultExtension) {
+        this.kind = kind;
+        this.name = name;
+        this.baseResourceType = baseResourceType;
+        this.resourceType = resourceType;
+        this.resourceSuperType = resourceSuperType;
+        this.extension = extension;
+        this.selectors = selectors;
+        this.defaultExtension = defaultExtension;
+        int result = kind.hashCode();
+        result = 31 * result + Objects.hashCode(name);
+        result = 31 * result + Objects.hashCode(baseResourceType);
+        result = 31 * result + Objects.hashCode(resourceType);
+        result = 31 * result + Objects.hashCode(resourceSuperType);
+        result = 31 * result + Objects.hashCode(extension);
+        result = 31 * result + Objects.hashCode(selectors);
+        result = 31 * result + (defaultExtension ? 1231 : 1237);
+        this.hashCode = result;
+    }
+
+    /**
+     * Create the key for a request
+     * @param request The request
+     * @param defaultExtensions The default extensions
+     * @return The key
+     */
+    public static ResolutionKey forRequest(
+            final SlingJakartaHttpServletRequest request, final Collection<String> defaultExtensions) {
+        final RequestPathInfo requestPathInfo = request.getRequestPathInfo();
+        final Resource resource = request.getResource();
+        return forRequest(
+                request.getMethod(),
+                requestPathInfo.getExtension(),
+                requestPathInfo.getSelectorString(),
+                resource.getResourceType(),
+                resource.getResourceSuperType(),
+                defaultExtensions);
+    }
+
+    /**
+     * Create the key for a request with the given values
+     * @param method The request method
+     * @param extension The request extension or {@code null}
+     * @param selectors The selector string or {@code null}
+     * @param resourceType The resource type
+     * @param resourceSuperType The resource super type or {@code null}
+     * @param defaultExtensions The default extensions
+     * @return The key
+     */
+    public static ResolutionKey forRequest(
+            final String method,
+            final String extension,
+            final String selectors,
+            final String resourceType,
+            final String resourceSuperType,
+            final Collection<String> defaultExtensions) {
+        return new ResolutionKey(
+                Kind.REQUEST,
+                method,
+                ServletResolverConstants.DEFAULT_RESOURCE_TYPE,
+                resourceType,
+                resourceSuperType,
+                extension,
+                selectors == null || selectors.isEmpty() ? null : selectors,
+                extension != null && defaultExtensions.contains(extension));
+    }
+
+    /**
+     * Create the key for a named script
+     * @param scriptName The name of the script
+     * @param resource The resource or {@code null}
+     * @return The key
+     */
+    public static ResolutionKey forScript(final String scriptName, final Resource resource) {
+        final int pos = scriptName.lastIndexOf('.');
+        final String extension = pos == -1 ? null : scriptName.substring(pos);
+        if (resource != null) {
+            return new ResolutionKey(
+                    Kind.SCRIPT,
+                    scriptName,
+                    ServletResolverConstants.DEFAULT_RESOURCE_TYPE,
+                    resource.getResourceType(),
+                    resource.getResourceSuperType(),
+                    extension,
+                    null,
+                    false);
+        }
+        return new ResolutionKey(Kind.SCRIPT, scriptName, "", "", null, extension, null, false);
+    }
+
+    /**
+     * Create the key for a method name
+     * @param methodName The method name
+     * @param baseResourceType The base resource type
+     * @param resource The resource
+     * @param extension The extension or {@code null}
+     * @return The key
+     */
+    public static ResolutionKey forMethod(
+            final String methodName, final String baseResourceType, final Resource resource, final String extension) {
+        return new ResolutionKey(
+                Kind.METHOD,
+                methodName,
+                baseResourceType != null ? baseResourceType : ServletResolverConstants.DEFAULT_RESOURCE_TYPE,
+                resource.getResourceType(),
+                resource.getResourceSuperType(),
+                extension,
+                null,
+                false);
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * The method name for {@link Kind#REQUEST} and {@link Kind#METHOD} keys,
+     * the script name for {@link Kind#SCRIPT} keys
+     * @return The name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    public String getBaseResourceType() {
+        return this.baseResourceType;
+    }
+
+    public String getResourceType() {
+        return this.resourceType;
+    }
+
+    public String getResourceSuperType() {
+        return this.resourceSuperType;
+    }
+
+    public String getExtension() {
+        return this.extension;
+    }
+
+    /**
+     * The selector string of a {@link Kind#REQUEST} key
+     * @return The selector string or {@code null} if the request has no selectors
+     */
+    public String getSelectorString() {
+        return this.selectors;
+    }
+
+    /**
+     * The selectors of a {@link Kind#REQUEST} key
+     * @return The selectors, empty if the request has no selectors
+     */
+    public String[] getSelectors() {
+        return this.selectors == null ? new String[0] : this.selectors.split("\\.");
+    }
+
+    public boolean isDefaultExtension() {
+        return this.defaultExtension;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ResolutionKey)) {
+            return false;
+        }
+        final ResolutionKey other = (ResolutionKey) obj;
+        return this.hashCode == other.hashCode
+                && this.kind == other.kind
+                && this.defaultExtension == other.defaultExtension
+                && Objects.equals(this.name, other.name)
+                && Objects.equals(this.resourceType, other.resourceType)
+                && Objects.equals(this.resourceSuperType, other.resourceSuperType)
+                && Objects.equals(this.extension, other.extension)
+                && Objects.equals(this.selectors, other.selectors)
+                && Objects.equals(this.baseResourceType, other.baseResourceType);
+    }
+
+    @Override
+    public String toString() {
+        return "ResolutionKey [kind=" + kind + ", name=" + name + ", resourceType=" + resourceType
+                + ", resourceSuperType=" + resourceSuperType + ", extension=" + extension + ", selectors="
+                + selectors + "]";
+    }
+}
@@ -41,6 +41,7 @@ import org.apache.sling.api.servlets.ServletResolverConstants;
 import org.apache.sling.servlets.resolver.internal.ResolverConfig;
 import org.apache.sling.servlets.resolver.internal.ServletWrapperUtil;
 import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache.FlushCause;
 import org.apache.sling.spi.resource.provider.ResourceProvider;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -220,7 +221,7 @@ public class ServletMounter {
             policy = ReferencePolicy.DYNAMIC)
     protected void bindResolutionCache(ResolutionCache cache) {
         if (this.provider != null) {
-            cache.flushCache();
+            cache.flushCache(FlushCause.LIFECYCLE);
             resolutionCaches.put(cache, cache);
         }
     }
@@ -301,7 +302,7 @@ public class ServletMounter {
                                 providerRegsLock.unlock();
                             }
                         }
-                        resolutionCaches.values().forEach(ResolutionCache::flushCache);
+                        resolutionCaches.values().forEach(cache -> cache.flushCache(FlushCause.SERVLET_REGISTRATION));
                     } else {
                         for (final String root : srProvider.getServletPaths()) {
                             @SuppressWarnings("unchecked")
@@ -371,7 +372,7 @@ public class ServletMounter {
                 }
             }
             if (registration.provider != null && provider != null && provider.remove(registration.provider)) {
-                resolutionCaches.values().forEach(ResolutionCache::flushCache);
+                resolutionCaches.values().forEach(cache -> cache.flushCache(FlushCause.SERVLET_REGISTRATION));
             }
             final String name = RequestUtil.getServletName(registration.servlet);
             logger.debug("unbindServlet: Servlet {} removed", name);
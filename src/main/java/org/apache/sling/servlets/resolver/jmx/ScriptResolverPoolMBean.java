@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.jmx;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * This is the management interface for the pool of script resource resolvers
+ * used by the SlingServletResolver while handling requests.
+ *
+ * @since 2.4.0
+ */
+@ProviderType
+public interface ScriptResolverPoolMBean {
+
+    /**
+     * Get the number of resource resolvers currently owned by the pool,
+     * including the ones which are in use
+     *
+     * @return the pool size
+     */
+    int getPoolSize();
+
+    /**
+     * Get the maximum configured size of the pool
+     *
+     * @return the maximum pool size
+     */
+    int getMaximumPoolSize();
+
+    /**
+     * Get the number of resource resolvers which are currently not in use
+     *
+     * @return the number of idle resource resolvers
+     */
+    int getIdleCount();
+
+    /**
+     * Get the number of times a resource resolver has been taken from the pool
+     *
+     * @return the number of checkouts
+     */
+    long getCheckoutCount();
+
+    /**
+     * Get the number of checkouts which had to wait for a resource resolver
+     * to be returned to the pool
+     *
+     * @return the number of waiting checkouts
+     */
+    long getWaitCount();
+
+    /**
+     * Get the total time in milliseconds checkouts have waited for a resource resolver
+     *
+     * @return the total wait time
+     */
+    long getTotalWaitTime();
+
+    /**
+     * Get the longest time in milliseconds a checkout has waited for a resource resolver
+     *
+     * @return the maximum wait time
+     */
+    long getMaximumWaitTime();
+
+    /**
+     * Get the number of checkouts which did not get a pooled resource resolver
+     * in time and used a resource resolver which is closed after the request instead
+     *
+     * @return the number of overflows
+     */
+    long getOverflowCount();
+}
@@ -40,8 +40,136 @@ public interface SlingServletResolverCacheMBean {
      */
     int getMaximumCacheSize();
 
+    /**
+     * Get the number of resource types and locations in the index of the resource type hierarchy.
+     * The index grows with the resource types which are resolved, up to the configured index
+     * size, and it is cleared whenever the cache is flushed or once it is full.
+     *
+     * @return the number of entries
+     * @since 2.4.0
+     */
+    int getResourceTypeHierarchySize();
+
+    /**
+     * Get the number of folders in the index of the script folders. Once the index holds the
+     * configured index size, folders are evicted.
+     *
+     * @return the number of folders
+     * @since 2.4.0
+     */
+    int getScriptTreeIndexSize();
+
     /**
      * Flush the servlet resolver cache.
      */
     void flushCache();
+
+    /**
+     * Get the number of lookups which have been answered from the cache,
+     * including the negative hits
+     *
+     * @return the number of hits
+     * @since 2.4.0
+     */
+    long getHitCount();
+
+    /**
+     * Get the number of lookups which have been answered from the cache
+     * with a cached resolution which did not find any servlet
+     *
+     * @return the number of negative hits
+     * @since 2.4.0
+     */
+    long getNegativeHitCount();
+
+    /**
+     * Get the number of lookups which had to search for servlets and scripts
+     *
+     * @return the number of misses
+     * @since 2.4.0
+     */
+    long getMissCount();
+
+    /**
+     * Get the number of resolutions which have not been cached because the cache
+     * has been flushed or invalidated while they were computed
+     *
+     * @return the number of rejected resolutions
+     * @since 2.4.0
+     */
+    long getRejectedPutCount();
+
+    /**
+     * Get the number of resolutions which have been evicted because the cache was full
+     *
+     * @return the number of evictions
+     * @since 2.4.0
+     */
+    long getEvictionCount();
+
+    /**
+     * Get the number of times cached resolutions have been invalidated because of resource changes
+     *
+     * @return the number of invalidations
+     * @since 2.4.0
+     */
+    long getResourceChangeInvalidationCount();
+
+    /**
+     * Get the number of times the cache has been flushed because of script engine or adapter changes
+     *
+     * @return the number of flushes
+     * @since 2.4.0
+     */
+    long getServiceEventFlushCount();
+
+    /**
+     * Get the number of times the cache has been flushed because a servlet has been registered or unregistered
+     *
+     * @return the number of flushes
+     * @since 2.4.0
+     */
+    long getServletRegistrationFlushCount();
+
+    /**
+     * Get the number of times the cache has been flushed through {@link #flushCache()}
+     *
+     * @return the number of flushes
+     * @since 2.4.0
+     */
+    long getJmxFlushCount();
+
+    /**
+     * Get the number of times the cache has been flushed because a component has been activated or deactivated
+     *
+     * @return the number of flushes
+     * @since 2.4.0
+     */
+    long getLifecycleFlushCount();
+
+    /**
+     * Get the number of times the cache has been flushed because the resource type hierarchy has been full
+     *
+     * @return the number of flushes
+     * @since 2.4.0
+     */
+    long getIndexOverflowFlushCount();
+
+    /**
+     * Get the upper bounds in microseconds of the buckets of {@link #getMissTimeHistogram()}
+     *
+     * @return the upper bounds of the buckets
+     * @since 2.4.0
+     */
+    long[] getMissTimeHistogramBounds();
+
+    /**
+     * Get the histogram of the time needed to compute a resolution on a cache miss. Each element
+     * is the number of misses which took at most the corresponding bound of
+     * {@link #getMissTimeHistogramBounds()} and more than the previous bound.
+     *
+     * @return the histogram
+     * @since 2.4.0
+     */
+    long[] getMissTimeHistogram();
 }
@@ -18,6 +18,7 @@
  */
 package org.apache.sling.servlets.resolver.internal;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.HashMap;
@@ -37,7 +38,10 @@ import org.junit.Test;
 import org.osgi.framework.Bundle;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class AbsoluteResourceTypeTest extends SlingServletResolverTestBase {
@@ -79,13 +83,21 @@ public class AbsoluteResourceTypeTest extends SlingServletResolverTestBase {
         when(pathInfo.getSelectors()).thenReturn(new String[0]);
         when(resource.getResourceType()).thenReturn(absolutePath);
 
-        // Set up the shared script resolver to use our mock resource resolver
+        // Set up the script resolver of the request to be our mock resource resolver,
+        // the shared script resolver must not be used
         Field sharedScriptResolverField = servletResolver.getClass().getDeclaredField("sharedScriptResolver");
         sharedScriptResolverField.setAccessible(true);
         @SuppressWarnings("unchecked")
         AtomicReference<ResourceResolver> sharedScriptResolver =
                 (AtomicReference<ResourceResolver>) sharedScriptResolverField.get(servletResolver);
-        sharedScriptResolver.set(mockResourceResolver);
+        final ResourceResolver sharedResolver = mock(ResourceResolver.class);
+        when(sharedResolver.clone(null)).thenReturn(mockResourceResolver);
+        sharedScriptResolver.set(sharedResolver);
+
+        final Class<?> handleClass = Class.forName(SlingServletResolver.class.getName() + "$RequestScriptResolver");
+        final Constructor<?> handleConstructor = handleClass.getDeclaredConstructor(SlingServletResolver.class);
+        handleConstructor.setAccessible(true);
+        final Object requestScriptResolver = handleConstructor.newInstance(servletResolver);
 
         // Use reflection to call the private resolveServletInternal method
         Method resolveServletInternalMethod = servletResolver
@@ -95,11 +107,13 @@ public class AbsoluteResourceTypeTest extends SlingServletResolverTestBase {
                         SlingJakartaHttpServletRequest.class,
                         Resource.class,
                         String.class,
-                        ResourceResolver.class);
+                        handleClass);
         resolveServletInternalMethod.setAccessible(true);
 
-        return (Servlet)
-                resolveServletInternalMethod.invoke(servletResolver, request, resource, path, mockResourceResolver);
+        final Servlet servlet = (Servlet)
+                resolveServletInternalMethod.invoke(servletResolver, request, resource, path, requestScriptResolver);
+        verify(sharedResolver, never()).getResource(anyString());
+        return servlet;
     }
 
     @Test
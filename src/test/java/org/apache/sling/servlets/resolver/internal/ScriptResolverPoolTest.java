@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.servlets.resolver.jmx.ScriptResolverPoolMBean;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptResolverPoolTest {
+
+    private ResourceResolver shared;
+
+    private final List<ResourceResolver> clones = new ArrayList<>();
+
+    private final List<ResourceResolver> refreshed = new ArrayList<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        shared = Mockito.mock(ResourceResolver.class);
+        Mockito.when(shared.clone(null)).thenAnswer(invocation -> {
+            final ResourceResolver clone = Mockito.mock(ResourceResolver.class);
+            Mockito.when(clone.isLive()).thenReturn(true);
+            Mockito.when(clone.getPropertyMap()).thenReturn(new HashMap<>());
+            clones.add(clone);
+            return clone;
+        });
+    }
+
+    @Test
+    public void testResolversAreReused() throws Exception {
+        final ScriptResolverPool pool = new ScriptResolverPool(shared, 2, 0, refreshed::add, generation::get);
+        final ResourceResolver first = pool.checkout();
+        pool.checkin(first);
+        final ResourceResolver second = pool.checkout();
+        assertSame(first, second);
+        assertEquals(1, clones.size());
+        // without a change, the reused resolver is not refreshed
+        assertEquals(0, refreshed.size());
+        Mockito.verify(second, Mockito.never()).refresh();
+        Mockito.verify(second, Mockito.never()).close();
+    }
+
+    @Test
+    public void testRequestStateIsClearedOnCheckin() throws Exception {
+        final ScriptResolverPool pool = new ScriptResolverPool(shared, 2, 0, refreshed::add, generation::get);
+        final ResourceResolver first = pool.checkout();
+        final Closeable closeable = Mockito.mock(Closeable.class);
+        first.getPropertyMap().put("request.attribute", "value");
+        first.getPropertyMap().put("request.closeable", closeable);
+        Mockito.when(first.hasChanges()).thenReturn(true);
+        pool.checkin(first);
+
+        final ResourceResolver second = pool.checkout();
+        assertSame(first, second);
+        assertTrue(second.getPropertyMap().isEmpty());
+        Mockito.verify(closeable).close();
+        Mockito.verify(second).revert();
+    }
+
+    @Test
+    public void testResolversAreRefreshedAfterChanges() throws Exception {
+        final ScriptResolverPool pool = new ScriptResolverPool(shared, 2, 0, refreshed::add, generation::get);
+        final ResourceResolver first = pool.checkout();
+        // a change while the resolver is in use
+        generation.incrementAndGet();
+        pool.checkin(first);
+        assertSame(first, pool.checkout());
+        assertEquals(1, refreshed.size());
+        Mockito.verify(first).refresh();
+        pool.checkin(first);
+
+        // no change since the last refresh
+        assertSame(first, pool.checkout());
+        assertEquals(1, refreshed.size());
+        Mockito.verify(first, Mockito.times(1)).refresh();
+    }
+
+    @Test
+    public void testOverflowResolversAreClosed() throws Exception {
+        final ScriptResolverPool pool = new ScriptResolverPool(shared, 1, 0, refreshed::add, generation::get);
+        final ScriptResolverPoolMBean mbean = pool.createMBean();
+        final ResourceResolver pooled = pool.checkout();
+        final ResourceResolver overflow = pool.checkout();
+        assertNotSame(pooled, overflow);
+        assertEquals(1, mbean.getPoolSize());
+        assertEquals(1, mbean.getOverflowCount());
+        assertEquals(2, mbean.getCheckoutCount());
+
+        pool.checkin(overflow);
+        Mockito.verify(overflow).close();
+        pool.checkin(pooled);
+        Mockito.verify(pooled, Mockito.never()).close();
+        assertEquals(1, mbean.getIdleCount());
+    }
+
+    @Test
+    public void testCheckoutWaitsForReturnedResolver() throws Exception {
+        final ScriptResolverPool pool = new ScriptResolverPool(shared, 1, 5000, refreshed::add, generation::get);
+        final ScriptResolverPoolMBean mbean = pool.createMBean();
+        final ResourceResolver pooled = pool.checkout();
+        final Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool.checkin(pooled);
+        });
+        thread.start();
+        assertSame(pooled, pool.checkout());
+        thread.join();
+        assertEquals(1, mbean.getWaitCount());
+        assertEquals(0, mbean.getOverflowCount());
+        assertEquals(1, clones.size());
+    }
+
+    @Test
+    public void testClosedResolversAreReplaced() throws Exception {
+        final ScriptResolverPool pool = new ScriptResolverPool(shared, 1, 0, refreshed::add, generation::get);
+        final ResourceResolver first = pool.checkout();
+        pool.checkin(first);
+        Mockito.when(first.isLive()).thenReturn(false);
+        final ResourceResolver second = pool.checkout();
+        assertNotSame(first, second);
+        assertEquals(1, pool.createMBean().getPoolSize());
+    }
+
+    @Test
+    public void testCloseClosesIdleAndReturnedResolvers() throws Exception {
+        final ScriptResolverPool pool = new ScriptResolverPool(shared, 2, 0, refreshed::add, generation::get);
+        final ResourceResolver idle = pool.checkout();
+        final ResourceResolver inUse = pool.checkout();
+        pool.checkin(idle);
+        pool.close();
+        Mockito.verify(idle).close();
+        Mockito.verify(inUse, Mockito.never()).close();
+        pool.checkin(inUse);
+        Mockito.verify(inUse).close();
+        assertEquals(0, pool.createMBean().getPoolSize());
+    }
+}
@@ -18,6 +18,10 @@
  */
 package org.apache.sling.servlets.resolver.internal;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
 import jakarta.servlet.Servlet;
 import org.apache.sling.api.adapter.AdapterManager;
 import org.apache.sling.api.adapter.SlingAdaptable;
@@ -31,6 +35,8 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ScriptResourceTest {
@@ -161,4 +167,89 @@ public class ScriptResourceTest {
         SlingScript adaptedScript = scriptResource.adaptTo(SlingScript.class);
         assertEquals(script, adaptedScript);
     }
+
+    @Test
+    public void testActiveResourceIsFetchedOncePerResolver() {
+        final String resourcePath = "/sling/test/test.html";
+        final ResourceResolver firstRR = mock(ResourceResolver.class);
+        final ResourceResolver secondRR = mock(ResourceResolver.class);
+        final ResourceResolver sharedRR = mock(ResourceResolver.class);
+        final Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(resourcePath);
+        when(resource.getResourceType()).thenReturn("sling/test");
+        when(firstRR.getResource(resourcePath)).thenReturn(resource);
+        when(firstRR.isLive()).thenReturn(true);
+        when(secondRR.getResource(resourcePath)).thenReturn(resource);
+        when(secondRR.isLive()).thenReturn(true);
+        when(sharedRR.getResource(resourcePath)).thenReturn(resource);
+
+        final AtomicReference<ResourceResolver> current = new AtomicReference<>(firstRR);
+        final ScriptResource scriptResource = new ScriptResource(resource, current::get, sharedRR);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("sling/test", scriptResource.getResourceType());
+        }
+        verify(firstRR, times(1)).getResource(resourcePath);
+
+        // a different resolver fetches the resource again
+        current.set(secondRR);
+        scriptResource.getResourceType();
+        scriptResource.getResourceType();
+        verify(secondRR, times(1)).getResource(resourcePath);
+
+        // a resolver which is not live anymore is not used
+        when(secondRR.isLive()).thenReturn(false);
+        scriptResource.getResourceType();
+        scriptResource.getResourceType();
+        verify(secondRR, times(1)).getResource(resourcePath);
+        verify(sharedRR, times(1)).getResource(resourcePath);
+    }
+
+    @Test
+    public void testActiveResourceIsFetchedAgainAfterRefresh() {
+        final String resourcePath = "/sling/test/test.html";
+        final ResourceResolver pooledRR = mock(ResourceResolver.class);
+        final ResourceResolver sharedRR = mock(ResourceResolver.class);
+        final Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(resourcePath);
+        when(resource.getResourceType()).thenReturn("sling/test");
+        when(pooledRR.getResource(resourcePath)).thenReturn(resource);
+        when(pooledRR.isLive()).thenReturn(true);
+        when(sharedRR.getResource(resourcePath)).thenReturn(resource);
+
+        final AtomicReference<ResourceResolver> current = new AtomicReference<>(pooledRR);
+        final Map<ResourceResolver, Long> refreshed = new HashMap<>();
+        refreshed.put(pooledRR, 0L);
+        refreshed.put(sharedRR, 0L);
+        final ScriptResource scriptResource = new ScriptResource(resource, current::get, sharedRR, refreshed::get);
+        scriptResource.getResourceType();
+        scriptResource.getResourceType();
+        verify(pooledRR, times(1)).getResource(resourcePath);
+
+        // the pooled resolver keeps its identity, but is refreshed after a change
+        refreshed.put(pooledRR, 1L);
+        scriptResource.getResourceType();
+        scriptResource.getResourceType();
+        verify(pooledRR, times(2)).getResource(resourcePath);
+
+        // a resource fetched while the resolver is refreshed is not used afterwards
+        refreshed.put(pooledRR, 2L);
+        when(pooledRR.getResource(resourcePath)).thenAnswer(invocation -> {
+            refreshed.put(pooledRR, 3L);
+            return resource;
+        });
+        scriptResource.getResourceType();
+        verify(pooledRR, times(3)).getResource(resourcePath);
+        scriptResource.getResourceType();
+        scriptResource.getResourceType();
+        verify(pooledRR, times(4)).getResource(resourcePath);
+
+        // the shared resolver is fetched again once it has been refreshed
+        current.set(null);
+        scriptResource.getResourceType();
+        verify(sharedRR, times(1)).getResource(resourcePath);
+        refreshed.put(sharedRR, 1L);
+        scriptResource.getResourceType();
+        scriptResource.getResourceType();
+        verify(sharedRR, times(2)).getResource(resourcePath);
+    }
 }
@@ -18,28 +18,55 @@
  */
 package org.apache.sling.servlets.resolver.internal;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import jakarta.servlet.Servlet;
 import jakarta.servlet.http.HttpServlet;
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.adapter.AdapterManager;
+import org.apache.sling.api.adapter.SlingAdaptable;
+import org.apache.sling.api.request.SlingJakartaRequestEvent;
+import org.apache.sling.api.request.SlingJakartaRequestEvent.EventType;
 import org.apache.sling.api.request.builder.Builders;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.servlets.JakartaOptingServlet;
 import org.apache.sling.api.wrappers.SlingJakartaHttpServletRequestWrapper;
 import org.apache.sling.servlets.resolver.internal.helper.HelperTestBase;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache;
 import org.apache.sling.servlets.resolver.internal.resource.MockServletResource;
 import org.apache.sling.servlets.resolver.internal.resource.ServletResource;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class SecureRequestsJakartaOptingServletTest extends SlingServletResolverJakaraTestBase {
@@ -97,6 +124,346 @@ public class SecureRequestsJakartaOptingServletTest extends SlingServletResolver
                 "Expecting a different servlet than our own", result.getClass(), SecureRequestsOptingServlet.class);
     }
 
+    private ResolutionCache activateCache() throws Exception {
+        return activateCache(200);
+    }
+
+    private ResolutionCache activateCache(final int cacheSize) throws Exception {
+        final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+        Mockito.when(config.servletresolver_cacheSize()).thenReturn(cacheSize);
+        Mockito.when(config.servletresolver_cacheIndexSize()).thenReturn(10000);
+        Mockito.when(config.servletresolver_paths()).thenReturn(new String[] {"/"});
+        final ResolutionCache cache = new ResolutionCache();
+        final Method activate =
+                ResolutionCache.class.getDeclaredMethod("activate", BundleContext.class, ResolverConfig.class);
+        activate.setAccessible(true);
+        final BundleContext context = Mockito.mock(BundleContext.class);
+        Mockito.doReturn(Mockito.mock(ServiceRegistration.class))
+                .when(context)
+                .registerService(
+                        Mockito.eq(ResourceChangeListener.class),
+                        Mockito.any(ResourceChangeListener.class),
+                        Mockito.any());
+        activate.invoke(cache, context, config);
+        final Field cacheField = SlingServletResolver.class.getDeclaredField("resolutionCache");
+        cacheField.setAccessible(true);
+        cacheField.set(servletResolver, cache);
+        return cache;
+    }
+
+    @Test
+    public void testCachedOptingServletIsAskedForEachRequest() throws Exception {
+        activateCache();
+
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(RESOURCE_TYPE);
+        Mockito.when(resource.getPath()).thenReturn("/" + RESOURCE_TYPE);
+
+        final Servlet first = servletResolver.resolve(Builders.newRequestBuilder(resource)
+                .withExtension(SERVLET_EXTENSION)
+                .buildJakartaRequest());
+        assertNotSame(testServlet, first);
+
+        // served from the cache, but the opting servlet decides again
+        final Servlet second = servletResolver.resolve(new SecureRequest(Builders.newRequestBuilder(resource)
+                .withExtension(SERVLET_EXTENSION)
+                .buildJakartaRequest()));
+        assertEquals(testServlet, second);
+    }
+
+    @Test
+    public void testCachedResolutionDoesNotAcquireScriptResolver() throws Exception {
+        activateCache();
+        final Field sharedField = SlingServletResolver.class.getDeclaredField("sharedScriptResolver");
+        sharedField.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        final AtomicReference<ResourceResolver> shared =
+                (AtomicReference<ResourceResolver>) sharedField.get(servletResolver);
+        final ResourceResolver sharedSpy = Mockito.spy(shared.get());
+        // the mock resource resolver can't be cloned, use a copy which is not closed
+        final ResourceResolver clone = Mockito.spy(shared.get());
+        Mockito.doNothing().when(clone).close();
+        Mockito.doReturn(clone).when(sharedSpy).clone(null);
+        shared.set(sharedSpy);
+
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(RESOURCE_TYPE);
+        Mockito.when(resource.getPath()).thenReturn("/" + RESOURCE_TYPE);
+
+        for (int i = 0; i < 3; i++) {
+            final SlingJakartaHttpServletRequest request = new SecureRequest(Builders.newRequestBuilder(resource)
+                    .withExtension(SERVLET_EXTENSION)
+                    .buildJakartaRequest());
+            servletResolver.onEvent(new SlingJakartaRequestEvent(null, request, EventType.EVENT_INIT));
+            assertEquals(testServlet, servletResolver.resolve(request));
+            servletResolver.onEvent(new SlingJakartaRequestEvent(null, request, EventType.EVENT_DESTROY));
+        }
+        // only the first request has to search for the servlet
+        Mockito.verify(sharedSpy, Mockito.times(1)).clone(null);
+    }
+
+    @Test
+    public void testSharedScriptResolverIsRefreshedAfterChangesOnly() throws Exception {
+        final ResolutionCache cache = activateCache(0);
+        final Field sharedField = SlingServletResolver.class.getDeclaredField("sharedScriptResolver");
+        sharedField.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        final AtomicReference<ResourceResolver> shared =
+                (AtomicReference<ResourceResolver>) sharedField.get(servletResolver);
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(RESOURCE_TYPE);
+        Mockito.when(resource.getPath()).thenReturn("/" + RESOURCE_TYPE);
+        final String scriptName = "/" + RESOURCE_TYPE + "/" + ResourceUtil.getName(RESOURCE_TYPE) + ".servlet";
+
+        // outside of a request, the shared one is used
+        assertEquals(testServlet, servletResolver.resolve(resource, scriptName));
+        final ResourceResolver sharedSpy = Mockito.spy(shared.get());
+        shared.set(sharedSpy);
+        assertEquals(testServlet, servletResolver.resolve(resource, scriptName));
+        assertEquals(testServlet, servletResolver.resolve(resource, scriptName));
+        Mockito.verify(sharedSpy, Mockito.never()).refresh();
+
+        cache.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/foo/bar.html", false)));
+        assertEquals(testServlet, servletResolver.resolve(resource, scriptName));
+        assertEquals(testServlet, servletResolver.resolve(resource, scriptName));
+        Mockito.verify(sharedSpy, Mockito.times(1)).refresh();
+    }
+
+    @Test
+    public void testSharedScriptResolverIsNotRefreshedWhileInUse() throws Exception {
+        final ResolutionCache cache = activateCache(0);
+        final Field sharedField = SlingServletResolver.class.getDeclaredField("sharedScriptResolver");
+        sharedField.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        final AtomicReference<ResourceResolver> shared =
+                (AtomicReference<ResourceResolver>) sharedField.get(servletResolver);
+        final ResourceResolver sharedSpy = Mockito.spy(shared.get());
+        shared.set(sharedSpy);
+        final Field lockField = SlingServletResolver.class.getDeclaredField("sharedScriptResolverLock");
+        lockField.setAccessible(true);
+        final ReentrantReadWriteLock lock = (ReentrantReadWriteLock) lockField.get(servletResolver);
+
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(RESOURCE_TYPE);
+        Mockito.when(resource.getPath()).thenReturn("/" + RESOURCE_TYPE);
+        final String scriptName = "/" + RESOURCE_TYPE + "/" + ResourceUtil.getName(RESOURCE_TYPE) + ".servlet";
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // a resolution with the shared script resolver is in progress
+            final CountDownLatch inUse = new CountDownLatch(1);
+            final CountDownLatch finished = new CountDownLatch(1);
+            executor.submit(() -> {
+                lock.readLock().lock();
+                try {
+                    inUse.countDown();
+                    return finished.await(10, TimeUnit.SECONDS);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            });
+            assertTrue(inUse.await(10, TimeUnit.SECONDS));
+
+            cache.onChange(Collections.singletonList(
+                    new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/foo/bar.html", false)));
+            final Future<Servlet> result = executor.submit(() -> servletResolver.resolve(resource, scriptName));
+            try {
+                result.get(200, TimeUnit.MILLISECONDS);
+                fail("The refresh must wait for the resolution in progress");
+            } catch (final TimeoutException expected) {
+                // expected
+            }
+            Mockito.verify(sharedSpy, Mockito.never()).refresh();
+
+            finished.countDown();
+            assertEquals(testServlet, result.get(10, TimeUnit.SECONDS));
+            Mockito.verify(sharedSpy, Mockito.times(1)).refresh();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResolveWithoutRequestUsesSharedResolver() throws Exception {
+        activateCache(0);
+        final Field sharedField = SlingServletResolver.class.getDeclaredField("sharedScriptResolver");
+        sharedField.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        final AtomicReference<ResourceResolver> shared =
+                (AtomicReference<ResourceResolver>) sharedField.get(servletResolver);
+        final ResourceResolver sharedSpy = Mockito.spy(shared.get());
+        // the mock resource resolver can't be cloned, use a copy which is not closed
+        final ResourceResolver clone = Mockito.spy(shared.get());
+        Mockito.doNothing().when(clone).close();
+        Mockito.doReturn(clone).when(sharedSpy).clone(null);
+        shared.set(sharedSpy);
+
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(RESOURCE_TYPE);
+        Mockito.when(resource.getPath()).thenReturn("/" + RESOURCE_TYPE);
+        final SlingJakartaHttpServletRequest request = Builders.newRequestBuilder(resource)
+                .withExtension(SERVLET_EXTENSION)
+                .buildJakartaRequest();
+        final String scriptName = "/" + RESOURCE_TYPE + "/" + ResourceUtil.getName(RESOURCE_TYPE) + ".servlet";
+
+        // the resolve methods without a request don't know about the request being processed
+        servletResolver.onEvent(new SlingJakartaRequestEvent(null, request, EventType.EVENT_INIT));
+        try {
+            assertEquals(testServlet, servletResolver.resolve(resource, scriptName));
+            assertEquals(testServlet, servletResolver.resolve(mockResourceResolver, scriptName));
+        } finally {
+            servletResolver.onEvent(new SlingJakartaRequestEvent(null, request, EventType.EVENT_DESTROY));
+        }
+        Mockito.verify(sharedSpy, Mockito.never()).clone(null);
+        Mockito.verify(sharedSpy, Mockito.atLeastOnce()).getResource(Mockito.anyString());
+        Mockito.verifyNoInteractions(clone);
+    }
+
+    @Test
+    public void testCachedScriptIsReadWithResolverOfEachRequest() throws Exception {
+        activateCache();
+        final String scriptType = "foo/script";
+        final String scriptPath = "/" + scriptType + "/script.html";
+        HelperTestBase.addOrReplaceResource(mockResourceResolver, scriptPath, Collections.emptyMap());
+        mockResourceResolver.commit();
+
+        final Field sharedField = SlingServletResolver.class.getDeclaredField("sharedScriptResolver");
+        sharedField.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        final AtomicReference<ResourceResolver> shared =
+                (AtomicReference<ResourceResolver>) sharedField.get(servletResolver);
+        final ResourceResolver original = shared.get();
+        final ResourceResolver sharedSpy = Mockito.spy(original);
+        // the mock resource resolver can't be cloned, use copies which are not closed
+        final List<ResourceResolver> clones = Collections.synchronizedList(new ArrayList<>());
+        Mockito.doAnswer(invocation -> {
+                    final ResourceResolver clone = Mockito.spy(original);
+                    Mockito.doNothing().when(clone).close();
+                    clones.add(clone);
+                    return clone;
+                })
+                .when(sharedSpy)
+                .clone(null);
+        shared.set(sharedSpy);
+
+        // scripts are adapted to servlets by the script engines, remember the script resources
+        final Map<Servlet, Resource> scripts = new ConcurrentHashMap<>();
+        final AdapterManager adapterManager = Mockito.mock(AdapterManager.class);
+        Mockito.when(adapterManager.getAdapter(Mockito.any(ScriptResource.class), Mockito.eq(Servlet.class)))
+                .thenAnswer(invocation -> {
+                    final Servlet servlet = Mockito.mock(Servlet.class);
+                    scripts.put(servlet, invocation.getArgument(0));
+                    return servlet;
+                });
+        SlingAdaptable.setAdapterManager(adapterManager);
+
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(scriptType);
+        Mockito.when(resource.getPath()).thenReturn("/content/script");
+
+        // two requests overlap, each on its own thread
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<Future<Resource>> results = new ArrayList<>();
+            final List<ResourceResolver> used = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < 2; i++) {
+                results.add(executor.submit(() -> {
+                    final SlingJakartaHttpServletRequest request = Builders.newRequestBuilder(resource)
+                            .withExtension(SERVLET_EXTENSION)
+                            .buildJakartaRequest();
+                    servletResolver.onEvent(new SlingJakartaRequestEvent(null, request, EventType.EVENT_INIT));
+                    try {
+                        // the first request computes the resolution, the second one uses the cached servlet
+                        final Servlet servlet;
+                        synchronized (scripts) {
+                            servlet = servletResolver.resolve(request);
+                        }
+                        final Resource script = scripts.get(servlet);
+                        used.add(script.getResourceResolver());
+                        barrier.await(10, TimeUnit.SECONDS);
+                        return script;
+                    } finally {
+                        barrier.await(10, TimeUnit.SECONDS);
+                        servletResolver.onEvent(new SlingJakartaRequestEvent(null, request, EventType.EVENT_DESTROY));
+                    }
+                }));
+            }
+            final Resource first = results.get(0).get(30, TimeUnit.SECONDS);
+            final Resource second = results.get(1).get(30, TimeUnit.SECONDS);
+            assertNotSame(first, second);
+            // while the requests overlap, each reads the script with its own resolver
+            assertEquals(2, used.size());
+            assertTrue(clones.containsAll(used));
+            assertNotSame(used.get(0), used.get(1));
+            // after the requests, the scripts are read with the shared resolver
+            assertFalse(clones.contains(first.getResourceResolver()));
+            assertFalse(clones.contains(second.getResourceResolver()));
+        } finally {
+            executor.shutdownNow();
+            SlingAdaptable.unsetAdapterManager(adapterManager);
+        }
+        // the cached servlet is not bound to a request, each request gets its own
+        assertEquals(2, clones.size());
+        assertEquals(3, scripts.size());
+        // the cached servlet does not read with any request resolver
+        for (final Resource script : scripts.values()) {
+            assertFalse(clones.contains(script.getResourceResolver()));
+        }
+    }
+
+    @Test
+    public void testRequestScriptResolverIsIndependentOfThreads() throws Exception {
+        activateCache(0);
+        final Field sharedField = SlingServletResolver.class.getDeclaredField("sharedScriptResolver");
+        sharedField.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        final AtomicReference<ResourceResolver> shared =
+                (AtomicReference<ResourceResolver>) sharedField.get(servletResolver);
+        final ResourceResolver sharedSpy = Mockito.spy(shared.get());
+        // the mock resource resolver can't be cloned, use a copy which is not closed
+        final ResourceResolver clone = Mockito.spy(shared.get());
+        Mockito.doNothing().when(clone).close();
+        Mockito.doReturn(clone).when(sharedSpy).clone(null);
+        shared.set(sharedSpy);
+
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(RESOURCE_TYPE);
+        Mockito.when(resource.getPath()).thenReturn("/" + RESOURCE_TYPE);
+
+        // each request is initialized, resolved and destroyed by different threads
+        final int requests = 2000;
+        final ExecutorService resolvers = Executors.newFixedThreadPool(32);
+        final ExecutorService destroyers = Executors.newFixedThreadPool(8);
+        try {
+            final List<CompletableFuture<Servlet>> results = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                final SlingJakartaHttpServletRequest request = new SecureRequest(Builders.newRequestBuilder(resource)
+                        .withExtension(SERVLET_EXTENSION)
+                        .buildJakartaRequest());
+                servletResolver.onEvent(new SlingJakartaRequestEvent(null, request, EventType.EVENT_INIT));
+                results.add(CompletableFuture.supplyAsync(() -> servletResolver.resolve(request), resolvers)
+                        .thenApplyAsync(
+                                servlet -> {
+                                    servletResolver.onEvent(
+                                            new SlingJakartaRequestEvent(null, request, EventType.EVENT_DESTROY));
+                                    return servlet;
+                                },
+                                destroyers));
+            }
+            for (final CompletableFuture<Servlet> result : results) {
+                assertEquals(testServlet, result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            resolvers.shutdownNow();
+            destroyers.shutdownNow();
+        }
+        // every request acquired its own resolver and released it
+        Mockito.verify(sharedSpy, Mockito.times(requests)).clone(null);
+        Mockito.verify(clone, Mockito.times(requests)).close();
+    }
+
     public static class SecureRequest extends SlingJakartaHttpServletRequestWrapper {
 
         public SecureRequest(final SlingJakartaHttpServletRequest request) {
@@ -65,6 +65,7 @@ public abstract class SlingServletResolverJakaraTestBase {
         Mockito.when(config.servletresolver_paths()).thenReturn(new String[] {"/"});
         Mockito.when(config.servletresolver_defaultExtensions()).thenReturn(new String[] {"html"});
         Mockito.when(config.servletresolver_cacheSize()).thenReturn(200);
+        Mockito.when(config.servletresolver_cacheIndexSize()).thenReturn(10000);
 
         MockResourceResolverFactoryOptions options = new MockResourceResolverFactoryOptions()
                 .setSearchPaths(new String[] {"/"})
@@ -18,6 +18,7 @@
  */
 package org.apache.sling.servlets.resolver.internal.helper;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -156,4 +157,23 @@ public class AbstractResourceCollectorTest {
         assertNotNull(res2);
         Mockito.verify(spyResolver, Mockito.times(2)).getResource("/parent/child1");
     }
+
+    @Test
+    public void testFindServletsStopsAtBestCandidate() {
+        context.create().resource("/apps/foo/bar/test.jsp");
+        context.create().resource("/libs/foo/bar/test.jsp");
+        final ResourceResolver resolver = Mockito.spy(context.resourceResolver());
+        final NamedScriptResourceCollector collector = new NamedScriptResourceCollector(
+                "sling/servlet/default", "foo/bar", null, "test.jsp", ".jsp", null, false);
+
+        final Iterator<Resource> iter = collector
+                .findServlets(resolver, ScriptExtensionRanks.EMPTY, null, null)
+                .iterator();
+        assertEquals("/apps/foo/bar/test.jsp", iter.next().getPath());
+        // no later location can contain a better match
+        Mockito.verify(resolver, Mockito.never()).getResource("/libs/foo/bar/test.jsp");
+        assertEquals(4, collector.getLocationPaths().size());
+
+        assertEquals("/libs/foo/bar/test.jsp", iter.next().getPath());
+    }
 }
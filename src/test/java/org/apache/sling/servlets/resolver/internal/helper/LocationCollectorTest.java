@@ -26,6 +26,7 @@ import java.util.Map;
 
 import org.apache.sling.api.SlingJakartaHttpServletRequest;
 import org.apache.sling.api.request.builder.Builders;
+import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
@@ -594,6 +595,58 @@ public class LocationCollectorTest {
         assertEquals(storedElement, r.getResourceResolver().getPropertyMap().get(LocationCollector.CACHE_KEY));
     }
 
+    @Test
+    public void testResourceTypeHierarchyIsSharedByResolvers() throws PersistenceException {
+        final String[] searchPath = new String[] {"/apps/", "/libs/"};
+        searchPathOptions.setSearchPaths(searchPath);
+        context.build()
+                .resource("/apps/foo/bar", "sling:resourceSuperType", "foo/superBar")
+                .resource("/apps/foo/superBar")
+                .resource("/apps/foo/other")
+                .commit();
+        final ResourceTypeHierarchy hierarchy = new ResourceTypeHierarchy();
+        hierarchy.reset(searchPath);
+
+        final List<Resource> expected = getLocations(resourceType, null, DEFAULT_RESOURCE_TYPE, hierarchy);
+        assertThat(
+                expected,
+                isSameResourceList(Arrays.asList(
+                        r("/apps/foo/bar"),
+                        r("/libs/foo/bar"),
+                        r("/apps/foo/superBar"),
+                        r("/libs/foo/superBar"),
+                        r("/apps/" + DEFAULT_RESOURCE_TYPE),
+                        r("/libs/" + DEFAULT_RESOURCE_TYPE))));
+
+        // with an empty resolver cache only the existing locations are read
+        LocationCollector.clearCache(resolver);
+        Mockito.clearInvocations(resolver);
+        assertThat(getLocations(resourceType, null, DEFAULT_RESOURCE_TYPE, hierarchy), isSameResourceList(expected));
+        Mockito.verify(resolver).getResource("/apps/foo/bar");
+        Mockito.verify(resolver).getResource("/apps/foo/superBar");
+        Mockito.verify(resolver, Mockito.times(2)).getResource(Mockito.anyString());
+
+        // the super type is only looked up again once the change is reported
+        resolver.getResource("/apps/foo/bar")
+                .adaptTo(ModifiableValueMap.class)
+                .put("sling:resourceSuperType", "foo/other");
+        resolver.commit();
+        LocationCollector.clearCache(resolver);
+        assertThat(getLocations(resourceType, null, DEFAULT_RESOURCE_TYPE, hierarchy), isSameResourceList(expected));
+
+        hierarchy.onChange(Collections.singletonList("/apps/foo/bar"));
+        LocationCollector.clearCache(resolver);
+        assertThat(
+                getLocations(resourceType, null, DEFAULT_RESOURCE_TYPE, hierarchy),
+                isSameResourceList(Arrays.asList(
+                        r("/apps/foo/bar"),
+                        r("/libs/foo/bar"),
+                        r("/apps/foo/other"),
+                        r("/libs/foo/other"),
+                        r("/apps/" + DEFAULT_RESOURCE_TYPE),
+                        r("/libs/" + DEFAULT_RESOURCE_TYPE))));
+    }
+
     // --- helper ---
 
     private Resource r(String path) {
@@ -611,6 +664,16 @@ public class LocationCollectorTest {
                 resourceType, resourceSuperType, baseResourceType, resolver, useResourceCaching);
     }
 
+    List<Resource> getLocations(
+            final String resourceType,
+            final String resourceSuperType,
+            final String baseResourceType,
+            final ResourceTypeHierarchy hierarchy) {
+
+        return LocationCollector.getLocations(
+                resourceType, resourceSuperType, baseResourceType, resolver, useResourceCaching, hierarchy);
+    }
+
     // Mimic the searchpath semantic of the ResourceResolverFactory
     public class SearchPathOptions {
 
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.ServletResolverConstants;
+import org.apache.sling.servlets.resolver.internal.SlingServletResolver;
+import org.apache.sling.servlets.resolver.internal.resource.ServletResourceProviderFactory;
+import org.apache.sling.testing.resourceresolver.MockResourceResolverFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the servlets found by the {@link ResourceCollector} with the servlets found
+ * by matching every child name against the naming rules and sorting the weighted
+ * resources by {@link WeightedResource#compareTo(WeightedResource)}, as the collector
+ * did before it used precompiled rules and packed scores, for random script folders.
+ * The ranks used don't apply to the scripts, the ordering by script extension rank is
+ * tested with explicit orderings in {@link ResourceCollectorTest}.
+ */
+public class ResourceCollectorDifferentialTest {
+
+    private static final String RESOURCE_TYPE = "foo/bar";
+
+    private static final String[] NAME_PARTS = {"bar", "print", "a4", "html", "json", "GET", "POST", "HEAD", "default"};
+
+    private static final String[] FOLDERS = {
+        "/apps/foo/bar",
+        "/libs/foo/bar",
+        "/apps/foo/bar/print",
+        "/apps/foo/bar/print/a4",
+        "/libs/foo/bar/a4",
+        "/libs/" + ServletResolverConstants.DEFAULT_RESOURCE_TYPE
+    };
+
+    private static final String[] SCRIPT_EXTENSIONS = {"jsp", "esp", "html"};
+
+    private static final String[] METHODS = {"GET", "HEAD", "POST"};
+
+    private static final String[][] SELECTORS = {{}, {"print"}, {"print", "a4"}, {"a4"}, {"html"}};
+
+    private static final String[] EXTENSIONS = {"html", "json", null};
+
+    private static final List<ScriptExtensionRanks> RANKS =
+            Arrays.asList(ScriptExtensionRanks.EMPTY, ScriptExtensionRanks.of(Arrays.asList("groovy", "js")));
+
+    private static final String[][] EXECUTION_PATHS = {null, {"/libs/"}};
+
+    @Test
+    public void testSameServletsAsNameMatching() throws LoginException {
+        final Random random = new Random(4711);
+        for (int i = 0; i < 40; i++) {
+            final ResourceResolver resolver = new MockResourceResolverFactory().getResourceResolver(null);
+            for (int j = 0; j < 20; j++) {
+                HelperTestBase.addOrReplaceResource(resolver, randomScriptPath(random), "nt:file");
+            }
+            if (random.nextBoolean()) {
+                HelperTestBase.addOrReplaceResource(
+                        resolver, "/apps/foo/bar" + ServletResourceProviderFactory.SERVLET_PATH_EXTENSION, "nt:file");
+            }
+            final ScriptTreeIndex index = new ScriptTreeIndex();
+            index.reset(resolver.getSearchPath());
+            for (final String method : METHODS) {
+                for (final String[] selectors : SELECTORS) {
+                    for (final String extension : EXTENSIONS) {
+                        for (final ScriptExtensionRanks ranks : RANKS) {
+                            for (final String[] executionPaths : EXECUTION_PATHS) {
+                                final String message = "tree " + i + ", " + method + " " + String.join(".", selectors)
+                                        + "." + extension;
+                                final boolean isDefaultExtension = "html".equals(extension);
+                                final List<String> expected = getServletsByNameMatching(
+                                        resolver, method, selectors, extension, isDefaultExtension, executionPaths);
+                                final ResourceCollector collector = ResourceCollector.create(
+                                        RESOURCE_TYPE,
+                                        null,
+                                        extension,
+                                        executionPaths,
+                                        isDefaultExtension,
+                                        method,
+                                        selectors,
+                                        false);
+                                assertEquals(message, expected, getPaths(collector.getServlets(resolver, ranks)));
+                                assertEquals(
+                                        message,
+                                        expected,
+                                        getPaths(collector.getServlets(resolver, ranks, null, index)));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static String randomScriptPath(final Random random) {
+        final StringBuilder sb = new StringBuilder(FOLDERS[random.nextInt(FOLDERS.length)]);
+        sb.append('/');
+        final int parts = 1 + random.nextInt(3);
+        for (int i = 0; i < parts; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            sb.append(NAME_PARTS[random.nextInt(NAME_PARTS.length)]);
+        }
+        sb.append('.').append(SCRIPT_EXTENSIONS[random.nextInt(SCRIPT_EXTENSIONS.length)]);
+        return sb.toString();
+    }
+
+    private static List<String> getPaths(final Iterable<? extends Resource> resources) {
+        final List<String> paths = new ArrayList<>();
+        resources.forEach(r -> paths.add(r.getPath()));
+        return paths;
+    }
+
+    // the reference implementation, matching every child name against the rules
+
+    private static List<String> getServletsByNameMatching(
+            final ResourceResolver resolver,
+            final String methodName,
+            final String[] selectors,
+            final String extension,
+            final boolean isDefaultExtension,
+            final String[] executionPaths) {
+        final List<WeightedResource> resources = new ArrayList<>();
+        final Matcher matcher = new Matcher(resources, methodName, extension, isDefaultExtension);
+        for (final Resource location : LocationCollector.getLocations(
+                RESOURCE_TYPE, null, ServletResolverConstants.DEFAULT_RESOURCE_TYPE, resolver, false)) {
+            Resource current = location;
+            String parentName = current.getName();
+            int selIdx = 0;
+            String selector;
+            do {
+                selector = (selIdx < selectors.length) ? selectors[selIdx] : null;
+                for (final Resource child : AbstractResourceCollector.getChildrenList(current, false)) {
+                    if (!SlingServletResolver.isPathAllowed(child.getPath(), executionPaths)) {
+                        continue;
+                    }
+                    String scriptName = child.getName();
+                    final int lastDot = scriptName.lastIndexOf('.');
+                    if (lastDot < 0) {
+                        continue;
+                    }
+                    scriptName = scriptName.substring(0, lastDot);
+                    matcher.match(scriptName, selector, parentName, child, selIdx);
+                }
+                if (selector != null) {
+                    current = resolver.getResource(current, selector);
+                    parentName = selector;
+                    selIdx++;
+                }
+            } while (selector != null && current != null);
+
+            final String path = location.getPath() + ServletResourceProviderFactory.SERVLET_PATH_EXTENSION;
+            if (SlingServletResolver.isPathAllowed(path, executionPaths)) {
+                final Resource servlet = resolver.getResource(path);
+                if (servlet != null) {
+                    matcher.add(servlet, 0, WeightedResource.WEIGHT_LAST_RESSORT);
+                }
+            }
+        }
+        resources.sort(WeightedResource::compareTo);
+        return getPaths(resources);
+    }
+
+    private static final class Matcher {
+
+        private final List<WeightedResource> resources;
+
+        private final String methodName;
+
+        private final boolean isGet;
+
+        private final boolean isDefaultExtension;
+
+        private final String suffExt;
+
+        private final String suffMethod;
+
+        private final String suffExtMethod;
+
+        Matcher(
+                final List<WeightedResource> resources,
+                final String methodName,
+                final String extension,
+                final boolean isDefaultExtension) {
+            this.resources = resources;
+            this.methodName = methodName;
+            this.isGet = "GET".equals(methodName) || "HEAD".equals(methodName);
+            this.isDefaultExtension = isDefaultExtension;
+            this.suffExt = "." + extension;
+            this.suffMethod = "." + methodName;
+            this.suffExtMethod = suffExt + suffMethod;
+        }
+
+        void match(
+                final String scriptName,
+                final String selector,
+                final String parentName,
+                final Resource child,
+                final int selIdx) {
+            if (isGet && checkScriptName(scriptName, selector, parentName, suffExt, null, child, selIdx)) {
+                return;
+            }
+            if (checkScriptName(scriptName, selector, parentName, suffExtMethod, suffMethod, child, selIdx)) {
+                return;
+            }
+            if (selector != null && scriptName.equals(selector + suffMethod)) {
+                add(child, selIdx + 1, WeightedResource.WEIGHT_NONE);
+                return;
+            }
+            if (scriptName.equals(methodName)) {
+                add(child, selIdx, WeightedResource.WEIGHT_NONE);
+            }
+        }
+
+        private boolean checkScriptName(
+                final String scriptName,
+                final String selector,
+                final String parentName,
+                final String suffix,
+                final String htmlSuffix,
+                final Resource child,
+                final int selIdx) {
+            final int methodWeight =
+                    (htmlSuffix != null) ? WeightedResource.WEIGHT_METHOD : WeightedResource.WEIGHT_NONE;
+            if (selector != null && scriptName.equals(selector + suffix)) {
+                add(child, selIdx + 1, WeightedResource.WEIGHT_EXTENSION);
+                return true;
+            }
+            if (scriptName.equals(parentName + suffix)) {
+                add(child, selIdx, WeightedResource.WEIGHT_EXTENSION + WeightedResource.WEIGHT_PREFIX + methodWeight);
+                return true;
+            }
+            if (scriptName.equals(suffix.substring(1))) {
+                add(child, selIdx, WeightedResource.WEIGHT_EXTENSION + methodWeight);
+                return true;
+            }
+            if (isDefaultExtension) {
+                final String html = htmlSuffix != null ? htmlSuffix : "";
+                if (selector != null && scriptName.equals(selector + html)) {
+                    add(child, selIdx + 1, WeightedResource.WEIGHT_NONE);
+                    return true;
+                }
+                if (scriptName.equals(parentName + html)) {
+                    add(child, selIdx, WeightedResource.WEIGHT_PREFIX);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(final Resource resource, final int numSelectors, final int methodPrefixWeight) {
+            resources.add(new WeightedResource(resources.size(), resource, numSelectors, methodPrefixWeight));
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.sling.servlets.resolver.internal.helper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -257,6 +258,63 @@ public class ResourceCollectorTest extends HelperTestBase {
         });
     }
 
+    public void testGetServletsScriptExtensionsRankOrdersScriptsWithSameBaseName() {
+        SlingJakartaHttpServletRequest req = makeRequest("GET", "print.a4", "html");
+        String[] names = {
+            "/print/a4.html.esp", // 0
+            "/print/a4.html.GET.esp", // 1   same weight, but another base name
+            "/print/a4.html.jsp" // 2
+        };
+
+        int[] baseIdxs = {0, 0, 0};
+        // the scripts with the same base name swap their positions, the other script keeps its position
+        int[] indices = {2, 1, 0};
+
+        effectiveTest(req, names, baseIdxs, indices, Arrays.asList("esp", "jsp"));
+    }
+
+    public void testGetServletsScriptExtensionsRankKeepsOrderOfSameBaseNameWithoutRanks() {
+        SlingJakartaHttpServletRequest req = makeRequest("GET", "print.a4", "html");
+        String[] names = {
+            "/print/a4.html.esp", // 0
+            "/print/a4.html.GET.esp", // 1
+            "/print/a4.html.jsp" // 2
+        };
+
+        int[] baseIdxs = {0, 0, 0};
+        int[] indices = {0, 1, 2};
+
+        effectiveTest(req, names, baseIdxs, indices, Arrays.asList("jsp", "esp"));
+    }
+
+    public void testGetServletsScriptExtensionsRankKeepsPositionOfUnrankedExtension() {
+        SlingJakartaHttpServletRequest req = makeRequest("GET", "print.a4", "html");
+        String[] names = {
+            "/print/a4.html.esp", // 0
+            "/print/a4.html.rb", // 1   no script engine for rb
+            "/print/a4.html.jsp" // 2
+        };
+
+        int[] baseIdxs = {0, 0, 0};
+        int[] indices = {2, 1, 0};
+
+        effectiveTest(req, names, baseIdxs, indices, Arrays.asList("esp", "jsp"));
+    }
+
+    public void testGetServletsScriptExtensionsRankOnlyAppliesWithinFolder() {
+        SlingJakartaHttpServletRequest req = makeRequest("GET", "print.a4", "html");
+        String[] names = {
+            "/print/a4.html.esp", // 0   /apps/foo/bar/print/a4.html.esp
+            "/print/a4.html.jsp" // 1    /libs/foo/bar/print/a4.html.jsp
+        };
+
+        int[] baseIdxs = {0, 1};
+        // the script in /apps wins although its extension has a lower rank
+        int[] indices = {0, 1};
+
+        effectiveTest(req, names, baseIdxs, indices, Arrays.asList("esp", "jsp"));
+    }
+
     public void testAnyServlets0() {
         // use a request with another request method "ANY"
         SlingJakartaHttpServletRequest req = makeRequest("ANY", "print.a4", "html");
@@ -448,6 +506,23 @@ public class ResourceCollectorTest extends HelperTestBase {
         }
 
         assertFalse(rIter.hasNext());
+
+        // the script tree index yields the same servlets
+        final ScriptTreeIndex index = new ScriptTreeIndex();
+        index.reset(r.getResourceResolver().getSearchPath());
+        final List<String> expected = new ArrayList<>();
+        res.forEach(s -> expected.add(s.getPath()));
+        for (int i = 0; i < 2; i++) {
+            final List<String> actual = new ArrayList<>();
+            lu.getServlets(
+                            r.getResourceResolver(),
+                            ScriptExtensionRanks.of(
+                                    scriptEngineExtensions != null ? scriptEngineExtensions : Collections.emptyList()),
+                            null,
+                            index)
+                    .forEach(s -> actual.add(s.getPath()));
+            assertEquals(expected, actual);
+        }
     }
 
     protected Resource createScriptResource(String path, String type) {
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceTypeHierarchyTest {
+
+    private static final String[] SEARCH_PATH = new String[] {"/apps/", "/libs/"};
+
+    private ResourceTypeHierarchy create() {
+        final ResourceTypeHierarchy hierarchy = new ResourceTypeHierarchy();
+        hierarchy.reset(SEARCH_PATH);
+        hierarchy.putSuperType("app/page", "core/page", hierarchy.getVersion());
+        hierarchy.putSuperType("app/page/teaser", null, hierarchy.getVersion());
+        hierarchy.putSuperType("app/list", "core/list", hierarchy.getVersion());
+        hierarchy.putSuperType("/content/types/foo", "app/page", hierarchy.getVersion());
+        hierarchy.putExists("/apps/app/page", true, hierarchy.getVersion());
+        hierarchy.putExists("/apps/app/page/teaser", false, hierarchy.getVersion());
+        hierarchy.putExists("/libs/app/list", false, hierarchy.getVersion());
+        return hierarchy;
+    }
+
+    @Test
+    public void testLookup() {
+        final ResourceTypeHierarchy hierarchy = create();
+        assertEquals(Optional.of("core/page"), hierarchy.getSuperType("app/page"));
+        assertEquals(Optional.empty(), hierarchy.getSuperType("app/page/teaser"));
+        assertNull(hierarchy.getSuperType("app/other"));
+        assertTrue(hierarchy.exists("/apps/app/page"));
+        assertFalse(hierarchy.exists("/apps/app/page/teaser"));
+        assertNull(hierarchy.exists("/libs/app/page"));
+    }
+
+    @Test
+    public void testChangeRemovesPathAndDescendants() {
+        final ResourceTypeHierarchy hierarchy = create();
+        hierarchy.onChange(Collections.singletonList("/libs/app/page"));
+        assertNull(hierarchy.getSuperType("app/page"));
+        assertNull(hierarchy.getSuperType("app/page/teaser"));
+        assertEquals(Optional.of("core/list"), hierarchy.getSuperType("app/list"));
+        // locations are only removed for the changed path itself
+        assertTrue(hierarchy.exists("/apps/app/page"));
+        assertFalse(hierarchy.exists("/apps/app/page/teaser"));
+
+        hierarchy.onChange(Collections.singletonList("/apps/app/page"));
+        assertNull(hierarchy.exists("/apps/app/page"));
+        assertNull(hierarchy.exists("/apps/app/page/teaser"));
+        assertFalse(hierarchy.exists("/libs/app/list"));
+    }
+
+    @Test
+    public void testChangeOfAbsoluteResourceType() {
+        final ResourceTypeHierarchy hierarchy = create();
+        hierarchy.onChange(Collections.singletonList("/content/types"));
+        assertNull(hierarchy.getSuperType("/content/types/foo"));
+        assertEquals(Optional.of("core/page"), hierarchy.getSuperType("app/page"));
+    }
+
+    @Test
+    public void testChangeOfSearchPathRemovesRelativeResourceTypes() {
+        final ResourceTypeHierarchy hierarchy = create();
+        hierarchy.onChange(Collections.singletonList("/apps"));
+        assertNull(hierarchy.getSuperType("app/page"));
+        assertNull(hierarchy.getSuperType("app/list"));
+        assertEquals(Optional.of("app/page"), hierarchy.getSuperType("/content/types/foo"));
+        assertNull(hierarchy.exists("/apps/app/page"));
+        assertFalse(hierarchy.exists("/libs/app/list"));
+    }
+
+    @Test
+    public void testIsAffectedBy() {
+        final ResourceTypeHierarchy hierarchy = create();
+        // absolute resource type, its ancestors and locations
+        assertTrue(hierarchy.isAffectedBy("/content/types/foo"));
+        assertTrue(hierarchy.isAffectedBy("/content/types"));
+        assertTrue(hierarchy.isAffectedBy("/apps/app/page/teaser"));
+        // scripts below a location
+        assertTrue(hierarchy.isAffectedBy("/apps/app/page/page.html"));
+        // relative resource types and the search path itself
+        assertTrue(hierarchy.isAffectedBy("/libs/app/list"));
+        assertTrue(hierarchy.isAffectedBy("/apps"));
+        assertTrue(hierarchy.isAffectedBy("/"));
+
+        assertFalse(hierarchy.isAffectedBy("/content/page"));
+        assertFalse(hierarchy.isAffectedBy("/content/types/foo/jcr:content"));
+        assertFalse(hierarchy.isAffectedBy("/content/types/foobar"));
+        assertFalse(hierarchy.isAffectedBy("/libs/app/other"));
+
+        // without the index, every change might be relevant
+        assertTrue(new ResourceTypeHierarchy().isAffectedBy("/content/page"));
+    }
+
+    @Test
+    public void testEntryLookedUpBeforeChangeIsNotAdded() {
+        final ResourceTypeHierarchy hierarchy = create();
+        final long version = hierarchy.getVersion();
+        hierarchy.onChange(Collections.singletonList("/apps/app/other"));
+        hierarchy.putSuperType("app/other", "core/other", version);
+        assertNull(hierarchy.getSuperType("app/other"));
+    }
+
+    @Test
+    public void testIndexIsClearedOnceFull() {
+        final AtomicInteger overflows = new AtomicInteger();
+        final ResourceTypeHierarchy hierarchy = new ResourceTypeHierarchy(overflows::incrementAndGet);
+        hierarchy.reset(SEARCH_PATH, 3);
+        hierarchy.putSuperType("app/page", "core/page", hierarchy.getVersion());
+        hierarchy.putExists("/apps/app/page", true, hierarchy.getVersion());
+        hierarchy.putExists("/libs/app/page", false, hierarchy.getVersion());
+        assertEquals(3, hierarchy.size());
+
+        // known entries are still updated
+        hierarchy.putExists("/libs/app/page", true, hierarchy.getVersion());
+        assertTrue(hierarchy.exists("/libs/app/page"));
+        assertEquals(0, overflows.get());
+
+        // a full index is cleared instead of adding the entry
+        final long version = hierarchy.getVersion();
+        hierarchy.putSuperType("app/list", "core/list", version);
+        assertNull(hierarchy.getSuperType("app/list"));
+        assertEquals(0, hierarchy.size());
+        assertEquals(1, overflows.get());
+
+        // entries looked up before are not added, and the index is built again
+        hierarchy.putSuperType("app/page", "core/page", version);
+        assertNull(hierarchy.getSuperType("app/page"));
+        hierarchy.putSuperType("app/list", "core/list", hierarchy.getVersion());
+        assertEquals(Optional.of("core/list"), hierarchy.getSuperType("app/list"));
+        assertEquals(1, hierarchy.size());
+        assertTrue(hierarchy.isAffectedBy("/apps/app/list"));
+        assertFalse(hierarchy.isAffectedBy("/apps/app/page"));
+        assertFalse(hierarchy.isAffectedBy("/content/page"));
+    }
+
+    @Test
+    public void testUsableForResolversWithSameSearchPath() {
+        final ResourceTypeHierarchy hierarchy = new ResourceTypeHierarchy();
+        final ResourceResolver resolver = Mockito.mock(ResourceResolver.class);
+        Mockito.when(resolver.getSearchPath()).thenReturn(new String[] {"/apps/", "/libs/"});
+        assertFalse(hierarchy.isUsableFor(resolver));
+        hierarchy.reset(SEARCH_PATH);
+        assertTrue(hierarchy.isUsableFor(resolver));
+        Mockito.when(resolver.getSearchPath()).thenReturn(new String[] {"/libs/"});
+        assertFalse(hierarchy.isUsableFor(resolver));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.resourceresolver.MockResourceResolverFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScoredCandidatesTest {
+
+    private ResourceResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        this.resolver = Mockito.spy(new MockResourceResolverFactory().getResourceResolver(null));
+    }
+
+    private ScriptFolder.Script[] list(final String... paths) {
+        final List<Resource> children = new ArrayList<>();
+        for (final String path : paths) {
+            children.add(HelperTestBase.addOrReplaceResource(resolver, path, "nt:file"));
+        }
+        return ScriptFolder.of(children, false).getScripts();
+    }
+
+    private static List<String> getPaths(final Iterable<Resource> resources) {
+        final List<String> paths = new ArrayList<>();
+        resources.forEach(r -> paths.add(r.getPath()));
+        return paths;
+    }
+
+    @Test
+    public void testScoreOrdersLikeWeightedResource() {
+        final int[][] values = {
+            {0, WeightedResource.WEIGHT_LAST_RESSORT},
+            {0, WeightedResource.WEIGHT_NONE},
+            {0, WeightedResource.WEIGHT_EXTENSION + WeightedResource.WEIGHT_PREFIX + WeightedResource.WEIGHT_METHOD},
+            {1, WeightedResource.WEIGHT_NONE},
+            {2, WeightedResource.WEIGHT_PREFIX},
+            {2, WeightedResource.WEIGHT_EXTENSION}
+        };
+        for (int i = 0; i < values.length; i++) {
+            for (int j = 0; j < values.length; j++) {
+                if (i == j) {
+                    continue;
+                }
+                final WeightedResource a = new WeightedResource(i, null, values[i][0], values[i][1]);
+                final WeightedResource b = new WeightedResource(j, null, values[j][0], values[j][1]);
+                final long scoreA = ScoredCandidates.score(values[i][0], values[i][1], i);
+                final long scoreB = ScoredCandidates.score(values[j][0], values[j][1], j);
+                assertEquals(Integer.signum(a.compareTo(b)), Long.signum(scoreA - scoreB));
+            }
+        }
+    }
+
+    @Test
+    public void testScriptsAreOnlyReadWhenIterated() {
+        final ScriptFolder.Script[] scripts = list("/apps/foo/bar/GET.jsp", "/apps/foo/bar/bar.jsp");
+        final ScoredCandidates candidates = new ScoredCandidates(resolver, false, null, 0, 0);
+        candidates.add(scripts[0], 0, WeightedResource.WEIGHT_NONE);
+        candidates.add(scripts[1], 0, WeightedResource.WEIGHT_PREFIX);
+        assertEquals(2, candidates.size());
+
+        Mockito.clearInvocations(resolver);
+        final Iterator<Resource> iter = candidates.iterator();
+        Mockito.verify(resolver, Mockito.never()).getResource(Mockito.anyString());
+        assertEquals("/apps/foo/bar/bar.jsp", iter.next().getPath());
+        Mockito.verify(resolver).getResource("/apps/foo/bar/bar.jsp");
+        Mockito.verify(resolver, Mockito.never()).getResource("/apps/foo/bar/GET.jsp");
+        assertEquals("/apps/foo/bar/GET.jsp", iter.next().getPath());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testRemovedScriptsAreSkipped() throws Exception {
+        final ScriptFolder.Script[] scripts = list("/apps/foo/bar/GET.jsp", "/apps/foo/bar/bar.jsp");
+        final Resource servlet = HelperTestBase.addOrReplaceResource(resolver, "/apps/foo/bar.servlet", "nt:file");
+        resolver.delete(resolver.getResource("/apps/foo/bar/bar.jsp"));
+
+        final ScoredCandidates candidates = new ScoredCandidates(resolver, false, null, 0, 0);
+        candidates.add(servlet, 0, WeightedResource.WEIGHT_LAST_RESSORT);
+        candidates.add(scripts[1], 0, WeightedResource.WEIGHT_PREFIX);
+        candidates.add(scripts[0], 0, WeightedResource.WEIGHT_NONE);
+        assertEquals(List.of("/apps/foo/bar/GET.jsp", "/apps/foo/bar.servlet"), getPaths(candidates));
+    }
+
+    @Test
+    public void testLocationsAreReadUntilBestCandidateIsKnown() {
+        final ScriptFolder.Script[] scripts =
+                list("/apps/a/html.jsp", "/apps/b/b.html.GET.jsp", "/apps/c/html.GET.jsp", "/apps/d/GET.jsp");
+        final int[][] values = {
+            {0, WeightedResource.WEIGHT_EXTENSION},
+            {0, WeightedResource.WEIGHT_EXTENSION + WeightedResource.WEIGHT_PREFIX + WeightedResource.WEIGHT_METHOD},
+            {0, WeightedResource.WEIGHT_EXTENSION + WeightedResource.WEIGHT_METHOD},
+            {0, WeightedResource.WEIGHT_NONE}
+        };
+        final int[] read = new int[1];
+        final ScoredCandidates candidates = new ScoredCandidates(
+                resolver,
+                false,
+                c -> {
+                    if (read[0] == scripts.length) {
+                        return false;
+                    }
+                    c.add(scripts[read[0]], values[read[0]][0], values[read[0]][1]);
+                    read[0]++;
+                    return true;
+                },
+                0,
+                values[1][1]);
+        final Iterator<Resource> iter = candidates.iterator();
+        // the first location can be outranked, the second one can't
+        assertEquals("/apps/b/b.html.GET.jsp", iter.next().getPath());
+        assertEquals(2, read[0]);
+        assertFalse(candidates.isComplete());
+        // the remaining candidates can be outranked by any later location
+        assertEquals("/apps/c/html.GET.jsp", iter.next().getPath());
+        assertEquals(4, read[0]);
+        assertEquals("/apps/a/html.jsp", iter.next().getPath());
+        assertEquals("/apps/d/GET.jsp", iter.next().getPath());
+        assertFalse(iter.hasNext());
+        assertTrue(candidates.isComplete());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCandidatesAreIteratedOnce() {
+        final ScoredCandidates candidates = new ScoredCandidates(resolver, false, null, 0, 0);
+        candidates.iterator();
+        candidates.iterator();
+    }
+}
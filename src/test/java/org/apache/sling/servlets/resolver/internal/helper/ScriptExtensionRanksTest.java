@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ScriptExtensionRanksTest {
+
+    @Test
+    public void testRanksMatchListPositions() {
+        final List<String> extensions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            extensions.add("ext" + i);
+        }
+        final ScriptExtensionRanks ranks = ScriptExtensionRanks.of(extensions);
+        assertEquals(extensions, ranks.getExtensions());
+        for (int i = 0; i < extensions.size(); i++) {
+            assertEquals(i, ranks.getRank("ext" + i));
+        }
+        assertEquals(ScriptExtensionRanks.NO_RANK, ranks.getRank("ext100"));
+        assertEquals(ScriptExtensionRanks.NO_RANK, ranks.getRank(""));
+    }
+
+    @Test
+    public void testDuplicatesUseFirstPosition() {
+        final ScriptExtensionRanks ranks = ScriptExtensionRanks.of(Arrays.asList("jsp", "html", "jsp"));
+        assertEquals(0, ranks.getRank("jsp"));
+        assertEquals(1, ranks.getRank("html"));
+    }
+
+    @Test
+    public void testRankOfPartOfString() {
+        final ScriptExtensionRanks ranks = ScriptExtensionRanks.of(Arrays.asList("html", "jsp"));
+        final String name = "script.jsp";
+        assertEquals(1, ranks.getRank(name, name.lastIndexOf('.') + 1, name.length()));
+        assertEquals(ScriptExtensionRanks.NO_RANK, ranks.getRank(name, 0, name.lastIndexOf('.')));
+        assertEquals(ScriptExtensionRanks.NO_RANK, ranks.getRank("script.js", 7, 9));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertSame(ScriptExtensionRanks.EMPTY, ScriptExtensionRanks.of(Collections.emptyList()));
+        assertEquals(ScriptExtensionRanks.NO_RANK, ScriptExtensionRanks.EMPTY.getRank("html"));
+    }
+}
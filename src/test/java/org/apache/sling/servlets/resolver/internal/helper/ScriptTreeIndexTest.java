@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.resourceresolver.MockResourceResolverFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptTreeIndexTest {
+
+    private ResourceResolver resolver;
+
+    private ScriptTreeIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        this.resolver = Mockito.spy(new MockResourceResolverFactory().getResourceResolver(null));
+        HelperTestBase.addOrReplaceResource(resolver, "/apps/foo/bar/bar.html.jsp", "nt:file");
+        HelperTestBase.addOrReplaceResource(resolver, "/apps/foo/bar/GET.jsp", "nt:file");
+        HelperTestBase.addOrReplaceResource(resolver, "/apps/foo/bar/print/a4.jsp", "nt:file");
+        this.index = new ScriptTreeIndex();
+        this.index.reset(resolver.getSearchPath());
+    }
+
+    private static List<String> getBaseNames(final ScriptFolder folder) {
+        final List<String> names = new ArrayList<>();
+        for (final ScriptFolder.Script script : folder.getScripts()) {
+            names.add(script.getBaseName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testFolderIsListedOnce() {
+        final ScriptFolder folder = index.getFolder(resolver, "/apps/foo/bar", null);
+        assertEquals(List.of("bar.html", "GET"), getBaseNames(folder));
+        assertEquals("/apps/foo/bar/GET.jsp", folder.getScripts()[1].getPath());
+        // resources are not kept in the shared listing
+        assertNull(folder.getScripts()[0].getResource());
+        assertTrue(folder.hasChild("print"));
+        assertFalse(folder.hasChild("other"));
+
+        Mockito.clearInvocations(resolver);
+        assertSame(folder, index.getFolder(resolver, "/apps/foo/bar", null));
+        Mockito.verifyNoInteractions(resolver);
+    }
+
+    @Test
+    public void testMissingFolderIsEmpty() {
+        final ScriptFolder folder = index.getFolder(resolver, "/apps/foo/missing", null);
+        assertEquals(0, folder.getScripts().length);
+        assertFalse(folder.hasChild("print"));
+    }
+
+    @Test
+    public void testChangeRemovesFolderDescendantsAndParent() throws PersistenceException {
+        index.getFolder(resolver, "/apps/foo", null);
+        index.getFolder(resolver, "/apps/foo/bar", null);
+        index.getFolder(resolver, "/apps/foo/bar/print", null);
+        index.getFolder(resolver, "/apps/other", null);
+        assertEquals(4, index.size());
+
+        HelperTestBase.addOrReplaceResource(resolver, "/apps/foo/bar/print/a5.jsp", "nt:file");
+        index.onChange(Collections.singletonList("/apps/foo/bar/print/a5.jsp"));
+        assertEquals(3, index.size());
+        assertEquals(List.of("a4", "a5"), getBaseNames(index.getFolder(resolver, "/apps/foo/bar/print", null)));
+
+        index.onChange(Collections.singletonList("/apps/foo/bar"));
+        assertEquals(1, index.size());
+        index.clear();
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testFolderListedDuringChangeIsNotAdded() {
+        Mockito.doAnswer(invocation -> {
+                    index.onChange(Collections.singletonList("/apps/foo/bar/GET.jsp"));
+                    return invocation.callRealMethod();
+                })
+                .when(resolver)
+                .getResource("/apps/foo/bar");
+        assertEquals(2, index.getFolder(resolver, "/apps/foo/bar", null).getScripts().length);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testFoldersAreEvictedOnceFull() {
+        index.reset(resolver.getSearchPath(), 2);
+        final ScriptFolder foo = index.getFolder(resolver, "/apps/foo", null);
+        index.getFolder(resolver, "/apps/foo/bar", null);
+        final ScriptFolder print = index.getFolder(resolver, "/apps/foo/bar/print", null);
+        assertEquals(2, index.size());
+
+        // the folder just added is kept, the evicted folder is listed again
+        Mockito.clearInvocations(resolver);
+        assertSame(print, index.getFolder(resolver, "/apps/foo/bar/print", null));
+        Mockito.verifyNoInteractions(resolver);
+        assertNotSame(foo, index.getFolder(resolver, "/apps/foo", null));
+        Mockito.verify(resolver).getResource("/apps/foo");
+        assertEquals(2, index.size());
+
+        index.onChange(Collections.singletonList("/apps/foo"));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testUsableForResolversWithSameSearchPath() {
+        assertTrue(index.isUsableFor(resolver));
+        index.reset(null);
+        assertFalse(index.isUsableFor(resolver));
+    }
+}
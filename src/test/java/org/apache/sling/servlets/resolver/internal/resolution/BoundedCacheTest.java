@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void testSizeIsBounded() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(10, key -> false);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(10, cache.size());
+        // the latest entry is always kept
+        assertEquals("value99", cache.get("key99"));
+    }
+
+    @Test
+    public void testRecentlyUsedEntriesSurvive() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(10, key -> false);
+        for (int i = 0; i < 10; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        // use one of the oldest entries
+        assertNotNull(cache.get("key0"));
+
+        assertEquals(1, cache.put("new", "value"));
+        assertEquals(10, cache.size());
+        assertEquals("value0", cache.get("key0"));
+        assertNull(cache.get("key1"));
+    }
+
+    @Test
+    public void testPinnedEntriesSurvive() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(10, key -> key.startsWith("pinned"));
+        cache.put("pinned", "value");
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals("value", cache.get("pinned"));
+    }
+
+    @Test
+    public void testReplaceDoesNotChangeSize() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(10, key -> false);
+        cache.put("key", "a");
+        cache.put("key", "b");
+        assertEquals(1, cache.size());
+        assertEquals("b", cache.get("key"));
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(10, key -> false);
+        for (int i = 0; i < 5; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals("value0", cache.remove("key0"));
+        assertNull(cache.remove("key0"));
+        assertEquals(4, cache.size());
+
+        assertEquals(2, cache.removeIf((key, value) -> key.equals("key1") || value.equals("value2")));
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("key3"));
+    }
+
+    @Test
+    public void testRemovedEntriesDoNotAccumulate() {
+        final BoundedCache<String, String> cache = new BoundedCache<>(10, key -> false);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value" + i);
+            cache.remove("key" + i);
+        }
+        assertEquals(0, cache.size());
+        for (int i = 0; i < 10; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testClearKeepsSizeOfConcurrentPuts() throws Exception {
+        final BoundedCache<String, String> cache = new BoundedCache<>(1000, key -> false);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String prefix = "thread" + t + "-";
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    cache.put(prefix + (i % 500), "value");
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            while (thread.isAlive()) {
+                cache.clear();
+            }
+        }
+        final AtomicInteger entries = new AtomicInteger();
+        cache.forEach((key, value) -> entries.incrementAndGet());
+        assertEquals(entries.get(), cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
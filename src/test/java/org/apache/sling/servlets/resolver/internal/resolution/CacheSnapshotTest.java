@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ResolutionKey requestKey(final String resourceType, final String selectors) {
+        return ResolutionKey.forRequest(
+                "GET", "html", selectors, resourceType, "app/base", Collections.singleton("html"));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final File file = new File(folder.getRoot(), CacheSnapshot.FILE_NAME);
+        final ResolutionKey foo = requestKey("app/foo", "a.b");
+        final ResolutionKey bar = requestKey("app/bar", null);
+        CacheSnapshot.write(file, Arrays.asList(foo, bar));
+
+        final List<ResolutionKey> keys = CacheSnapshot.read(file);
+        assertEquals(2, keys.size());
+        final ResolutionKey key = keys.get(0);
+        assertEquals(ResolutionKey.Kind.REQUEST, key.getKind());
+        assertEquals("GET", key.getName());
+        assertEquals("html", key.getExtension());
+        assertArrayEquals(new String[] {"a", "b"}, key.getSelectors());
+        assertEquals("app/foo", key.getResourceType());
+        assertEquals("app/base", key.getResourceSuperType());
+        assertNull(keys.get(1).getSelectorString());
+
+        // the key recreated with the default extensions is equal to the original one
+        final ResolutionKey recreated = ResolutionKey.forRequest(
+                key.getName(),
+                key.getExtension(),
+                key.getSelectorString(),
+                key.getResourceType(),
+                key.getResourceSuperType(),
+                Collections.singleton("html"));
+        assertEquals(foo, recreated);
+        assertEquals(foo.hashCode(), recreated.hashCode());
+    }
+
+    @Test
+    public void testOnlyRequestKeysAreWritten() throws Exception {
+        final File file = new File(folder.getRoot(), CacheSnapshot.FILE_NAME);
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn("app/foo");
+        CacheSnapshot.write(
+                file,
+                Arrays.asList(
+                        ResolutionKey.forScript("script.html", resource),
+                        ResolutionKey.forMethod("404", "sling/servlet/errorhandler", resource, null),
+                        requestKey("app/foo", null)));
+        assertEquals(1, CacheSnapshot.read(file).size());
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        assertTrue(
+                CacheSnapshot.read(new File(folder.getRoot(), "missing.json")).isEmpty());
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testInvalidFile() throws Exception {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), "{not json".getBytes(StandardCharsets.UTF_8));
+        CacheSnapshot.read(file);
+    }
+}
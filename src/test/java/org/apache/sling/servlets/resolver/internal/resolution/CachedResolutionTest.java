@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.Servlet;
+import jakarta.servlet.http.HttpServlet;
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.request.builder.Builders;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.servlets.JakartaOptingServlet;
+import org.apache.sling.servlets.resolver.api.CacheableOptingServlet;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CachedResolutionTest {
+
+    private final Resource resource = Mockito.mock(Resource.class);
+
+    private SlingJakartaHttpServletRequest request(final String selector) {
+        Mockito.when(resource.getPath()).thenReturn("/content/page");
+        return Builders.newRequestBuilder(resource)
+                .withSelectors(selector)
+                .withExtension("html")
+                .buildJakartaRequest();
+    }
+
+    @Test
+    public void testCacheableDecisionsAreReused() {
+        final SelectorServlet opting = new SelectorServlet();
+        final CachedResolution resolution =
+                new CachedResolution(Arrays.asList(opting, Mockito.mock(Servlet.class)), Collections.emptyList());
+
+        assertTrue(resolution.accepts(0, request("json")));
+        assertTrue(resolution.accepts(0, request("json")));
+        assertFalse(resolution.accepts(0, request("xml")));
+        assertFalse(resolution.accepts(0, request("xml")));
+        assertEquals(2, opting.calls.get());
+
+        // the fallback accepts everything
+        assertTrue(resolution.accepts(1, request("xml")));
+    }
+
+    @Test
+    public void testPlainOptingServletIsAlwaysAsked() {
+        final JakartaOptingServlet opting = Mockito.mock(JakartaOptingServlet.class);
+        Mockito.when(opting.accepts(Mockito.any())).thenReturn(true);
+        final CachedResolution resolution =
+                new CachedResolution(Collections.singletonList(opting), Collections.emptyList());
+
+        assertTrue(resolution.accepts(0, request("json")));
+        assertTrue(resolution.accepts(0, request("json")));
+        assertFalse(resolution.accepts(0, null));
+        Mockito.verify(opting, Mockito.times(2)).accepts(Mockito.any());
+    }
+
+    @Test
+    public void testScriptsOfCandidates() {
+        final Resource script = Mockito.mock(Resource.class);
+        final CachedResolution resolution = new CachedResolution(
+                Arrays.asList(Mockito.mock(JakartaOptingServlet.class), Mockito.mock(Servlet.class)),
+                Arrays.asList(null, script),
+                Collections.emptyList());
+        assertNull(resolution.getScript(0));
+        assertSame(script, resolution.getScript(1));
+
+        assertNull(new CachedResolution(Collections.singletonList(Mockito.mock(Servlet.class)), Collections.emptyList())
+                .getScript(0));
+    }
+
+    @Test
+    public void testNumberOfDecisionsIsBounded() {
+        final SelectorServlet opting = new SelectorServlet();
+        final AcceptDecisions decisions = new AcceptDecisions(opting);
+        for (int i = 0; i < 2 * AcceptDecisions.MAX_DECISIONS; i++) {
+            decisions.accepts(request("s" + i));
+        }
+        assertEquals(AcceptDecisions.MAX_DECISIONS, decisions.size());
+    }
+
+    @SuppressWarnings("serial")
+    private static class SelectorServlet extends HttpServlet implements CacheableOptingServlet {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public boolean accepts(@NotNull SlingJakartaHttpServletRequest request) {
+            calls.incrementAndGet();
+            return "json".equals(request.getRequestPathInfo().getSelectorString());
+        }
+
+        @Override
+        public @NotNull Set<RequestFacet> getRequestFacets() {
+            return EnumSet.of(RequestFacet.SELECTORS);
+        }
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.Servlet;
+import org.apache.sling.api.adapter.AdapterFactory;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.servlets.resolver.internal.ResolverConfig;
+import org.apache.sling.servlets.resolver.internal.helper.ResourceTypeHierarchy;
+import org.apache.sling.servlets.resolver.internal.helper.ScriptTreeIndex;
+import org.apache.sling.servlets.resolver.internal.resolution.ResolutionCache.FlushCause;
+import org.apache.sling.servlets.resolver.jmx.SlingServletResolverCacheMBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.EventHandler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionCacheTest {
+
+    private final BundleContext bundleContext = Mockito.mock(BundleContext.class);
+
+    private final ResolutionCache cache = new ResolutionCache();
+
+    private final ResolverConfig config = Mockito.mock(ResolverConfig.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ResourceChangeListener resourceTypeListener;
+
+    @Before
+    public void setUp() throws Exception {
+        Mockito.when(config.servletresolver_cacheSize()).thenReturn(200);
+        Mockito.when(config.servletresolver_cacheIndexSize()).thenReturn(10000);
+        Mockito.when(config.servletresolver_paths()).thenReturn(new String[] {"/"});
+        Mockito.when(config.servletresolver_servletRoot()).thenReturn("0");
+        Mockito.when(config.servletresolver_cacheLoadTimeout()).thenReturn(10000);
+
+        final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);
+        Mockito.when(factory.getSearchPath()).thenReturn(Arrays.asList("/apps/", "/libs/"));
+        final Field factoryField = ResolutionCache.class.getDeclaredField("resourceResolverFactory");
+        factoryField.setAccessible(true);
+        factoryField.set(cache, factory);
+
+        Mockito.doReturn(Mockito.mock(ServiceRegistration.class))
+                .when(bundleContext)
+                .registerService(
+                        Mockito.eq(ResourceChangeListener.class),
+                        Mockito.any(ResourceChangeListener.class),
+                        Mockito.any());
+        Mockito.doReturn(Mockito.mock(ServiceRegistration.class))
+                .when(bundleContext)
+                .registerService(Mockito.eq(EventHandler.class), Mockito.any(EventHandler.class), Mockito.any());
+        cache.activate(bundleContext, config);
+
+        final ArgumentCaptor<ResourceChangeListener> listeners = ArgumentCaptor.forClass(ResourceChangeListener.class);
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<Dictionary<String, Object>> properties = ArgumentCaptor.forClass(Dictionary.class);
+        Mockito.verify(bundleContext, Mockito.times(2))
+                .registerService(Mockito.eq(ResourceChangeListener.class), listeners.capture(), properties.capture());
+        assertSame(cache, listeners.getAllValues().get(0));
+        assertArrayEquals(new String[] {"/apps", "/libs"}, (String[])
+                properties.getAllValues().get(0).get(ResourceChangeListener.PATHS));
+        resourceTypeListener = listeners.getAllValues().get(1);
+    }
+
+    @After
+    public void tearDown() {
+        cache.deactivate(bundleContext);
+    }
+
+    private static ResolutionKey key(final String resourceType) {
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(resourceType);
+        return ResolutionKey.forScript("script.html", resource);
+    }
+
+    private static ResourceChange change(final String path) {
+        return new ResourceChange(ChangeType.CHANGED, path, false);
+    }
+
+    /**
+     * Record a location in the resource type hierarchy, as done when a resolution is computed
+     */
+    private void addLocation(final String path, final boolean exists) throws Exception {
+        final ResourceTypeHierarchy hierarchy = cache.getResourceTypeHierarchy();
+        final Method getVersion = ResourceTypeHierarchy.class.getDeclaredMethod("getVersion");
+        getVersion.setAccessible(true);
+        final Method putExists =
+                ResourceTypeHierarchy.class.getDeclaredMethod("putExists", String.class, boolean.class, long.class);
+        putExists.setAccessible(true);
+        putExists.invoke(hierarchy, path, exists, getVersion.invoke(hierarchy));
+    }
+
+    /**
+     * Add an empty folder to the script tree index, as done when a resolution is computed
+     */
+    private void addFolder(final String path) throws Exception {
+        final Method getFolder = ScriptTreeIndex.class.getDeclaredMethod(
+                "getFolder", ResourceResolver.class, String.class, Resource.class);
+        getFolder.setAccessible(true);
+        final Resource folder = Mockito.mock(Resource.class);
+        Mockito.when(folder.listChildren()).thenReturn(Collections.emptyIterator());
+        getFolder.invoke(cache.getScriptTreeIndex(), Mockito.mock(ResourceResolver.class), path, folder);
+    }
+
+    @Test
+    public void testChangeInvalidatesDependentResolutionsOnly() {
+        final ResolutionKey foo = key("app/foo");
+        final ResolutionKey bar = key("app/bar");
+        final Servlet fooServlet = Mockito.mock(Servlet.class);
+        final Servlet barServlet = Mockito.mock(Servlet.class);
+        cache.put(foo, Collections.singletonList(fooServlet), Arrays.asList("/apps/app/foo", "/libs/app/foo"));
+        cache.put(bar, Collections.singletonList(barServlet), Arrays.asList("/apps/app/bar", "/libs/app/bar"));
+
+        cache.onChange(Collections.singletonList(change("/apps/app/foo/foo.html")));
+        assertNull(cache.get(foo));
+        assertSame(barServlet, cache.get(bar).getCandidates().get(0));
+    }
+
+    @Test
+    public void testChangeOfAncestorInvalidatesResolution() {
+        final ResolutionKey foo = key("app/foo");
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+
+        cache.onChange(Collections.singletonList(change("/apps/other")));
+        assertNotNull(cache.get(foo));
+
+        cache.onChange(Collections.singletonList(change("/apps/app")));
+        assertNull(cache.get(foo));
+    }
+
+    @Test
+    public void testSiblingWithCommonPrefixDoesNotInvalidate() {
+        final ResolutionKey foo = key("app/foo");
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+
+        cache.onChange(Collections.singletonList(change("/apps/app/foobar/foobar.html")));
+        assertNotNull(cache.get(foo));
+    }
+
+    @Test
+    public void testContentChangesAreIgnored() throws Exception {
+        final ResolutionKey foo = key("/content/types/foo");
+        addLocation("/content/types/foo", true);
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Arrays.asList("/content/types/foo", "/apps/sling/servlet/default"));
+
+        resourceTypeListener.onChange(Collections.singletonList(new ResourceChange(
+                ChangeType.CHANGED,
+                "/content/types/foo",
+                false,
+                Collections.emptySet(),
+                Collections.singleton("jcr:title"),
+                Collections.emptySet())));
+        assertNotNull(cache.get(foo));
+
+        resourceTypeListener.onChange(Collections.singletonList(new ResourceChange(
+                ChangeType.CHANGED,
+                "/content/types/foo",
+                false,
+                Collections.emptySet(),
+                Collections.singleton("sling:resourceSuperType"),
+                Collections.emptySet())));
+        assertNull(cache.get(foo));
+    }
+
+    @Test
+    public void testContentRemovalInvalidatesAbsoluteResourceTypes() throws Exception {
+        final ResolutionKey foo = key("/content/types/foo");
+        addLocation("/content/types/foo", true);
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Arrays.asList("/content/types/foo", "/apps/sling/servlet/default"));
+
+        resourceTypeListener.onChange(
+                Collections.singletonList(new ResourceChange(ChangeType.REMOVED, "/content/page", false)));
+        assertNotNull(cache.get(foo));
+
+        resourceTypeListener.onChange(
+                Collections.singletonList(new ResourceChange(ChangeType.REMOVED, "/content/types", false)));
+        assertNull(cache.get(foo));
+    }
+
+    @Test
+    public void testContentChangesOutsideOfHierarchyAreIgnored() throws Exception {
+        final ResolutionKey foo = key("/content/types/foo");
+        addLocation("/content/types/foo", false);
+        cache.put(foo, Collections.emptyList(), Arrays.asList("/content/types/foo", "/apps/sling/servlet/default"));
+        final long generation = cache.getChangeGeneration();
+
+        // changes without property names, additions and removals of other content
+        resourceTypeListener.onChange(Arrays.asList(
+                new ResourceChange(ChangeType.CHANGED, "/content/page", false),
+                new ResourceChange(ChangeType.ADDED, "/content/dam/image.png", false),
+                new ResourceChange(ChangeType.REMOVED, "/content/types/foobar", false)));
+        assertEquals(generation, cache.getChangeGeneration());
+        assertNotNull(cache.get(foo));
+
+        // a script added below the location of the resource type
+        resourceTypeListener.onChange(
+                Collections.singletonList(new ResourceChange(ChangeType.ADDED, "/content/types/foo/foo.html", false)));
+        assertTrue(cache.getChangeGeneration() > generation);
+        assertNull(cache.get(foo));
+    }
+
+    @Test
+    public void testNegativeResolution() {
+        final ResolutionKey foo = key("app/foo");
+        cache.put(foo, Collections.emptyList(), Arrays.asList("/apps/app/foo", "/libs/app/foo"));
+
+        final CachedResolution resolution = cache.get(foo);
+        assertNotNull(resolution);
+        assertTrue(resolution.getCandidates().isEmpty());
+
+        // adding a script below a location invalidates the negative resolution
+        cache.onChange(
+                Collections.singletonList(new ResourceChange(ChangeType.ADDED, "/libs/app/foo/foo.html", false)));
+        assertNull(cache.get(foo));
+    }
+
+    @Test
+    public void testConcurrentMissesAreComputedOnce() throws Exception {
+        final ResolutionKey foo = key("app/foo");
+        final CachedResolution resolution = new CachedResolution(
+                Collections.singletonList(Mockito.mock(Servlet.class)), Collections.singletonList("/apps/app/foo"));
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<CachedResolution>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.resolve(
+                    foo,
+                    () -> {
+                        loads.incrementAndGet();
+                        loading.countDown();
+                        try {
+                            release.await();
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return resolution;
+                    },
+                    () -> null)));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> cache.resolve(
+                        foo,
+                        () -> {
+                            loads.incrementAndGet();
+                            return resolution;
+                        },
+                        () -> null)));
+            }
+            release.countDown();
+            for (final Future<CachedResolution> result : results) {
+                assertSame(resolution, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStaleResolutionIsUsedWhileRevalidated() throws Exception {
+        Mockito.when(config.servletresolver_cacheStaleWhileRevalidate()).thenReturn(true);
+        Mockito.when(config.servletresolver_cacheMaxStaleness()).thenReturn(60000);
+        cache.modified(bundleContext, config);
+
+        final ResolutionKey foo = key("app/foo");
+        final Servlet staleServlet = Mockito.mock(Servlet.class);
+        cache.put(foo, Collections.singletonList(staleServlet), Collections.singletonList("/apps/app/foo"));
+        cache.onChange(Collections.singletonList(change("/apps/app/foo/foo.html")));
+        final CachedResolution stale = cache.get(foo);
+        assertNotNull(stale);
+        assertTrue(stale.isStale());
+
+        final CachedResolution fresh = new CachedResolution(
+                Collections.singletonList(Mockito.mock(Servlet.class)), Collections.singletonList("/apps/app/foo"));
+        final CountDownLatch revalidated = new CountDownLatch(1);
+        final CachedResolution result = cache.resolve(
+                foo,
+                () -> {
+                    throw new AssertionError("Stale resolution must be used");
+                },
+                () -> {
+                    revalidated.countDown();
+                    return fresh;
+                });
+        assertSame(stale, result);
+        assertTrue(revalidated.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && cache.get(foo) != fresh; i++) {
+            Thread.sleep(10);
+        }
+        assertSame(fresh, cache.get(foo));
+    }
+
+    @Test
+    public void testStaleResolutionIsNotUsedAfterMaximumStaleness() throws Exception {
+        Mockito.when(config.servletresolver_cacheStaleWhileRevalidate()).thenReturn(true);
+        Mockito.when(config.servletresolver_cacheMaxStaleness()).thenReturn(-1);
+        cache.modified(bundleContext, config);
+
+        final ResolutionKey foo = key("app/foo");
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+        cache.onChange(Collections.singletonList(change("/apps/app/foo/foo.html")));
+
+        final CachedResolution fresh = new CachedResolution(
+                Collections.singletonList(Mockito.mock(Servlet.class)), Collections.singletonList("/apps/app/foo"));
+        assertSame(fresh, cache.resolve(foo, () -> fresh, () -> null));
+        assertSame(fresh, cache.get(foo));
+    }
+
+    @Test
+    public void testResolutionComputedBeforeFlushIsNotCached() {
+        final ResolutionKey foo = key("app/foo");
+        final CachedResolution resolution = new CachedResolution(
+                Collections.singletonList(Mockito.mock(Servlet.class)), Collections.singletonList("/apps/app/foo"));
+        assertSame(
+                resolution,
+                cache.resolve(
+                        foo,
+                        () -> {
+                            cache.flushCache(FlushCause.SERVLET_REGISTRATION);
+                            return resolution;
+                        },
+                        () -> null));
+        assertNull(cache.get(foo));
+
+        assertSame(
+                resolution,
+                cache.resolve(
+                        foo,
+                        () -> {
+                            cache.onChange(Collections.singletonList(change("/apps/app/foo/foo.html")));
+                            return resolution;
+                        },
+                        () -> null));
+        assertNull(cache.get(foo));
+
+        assertSame(resolution, cache.resolve(foo, () -> resolution, () -> null));
+        assertSame(resolution, cache.get(foo));
+    }
+
+    @Test
+    public void testNoResolutionsAreCachedDuringDebounceWindow() throws Exception {
+        Mockito.when(config.servletresolver_cacheInvalidationDebounce()).thenReturn(60000);
+        cache.modified(bundleContext, config);
+
+        final ResolutionKey foo = key("app/foo");
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+        assertNotNull(cache.get(foo));
+
+        cache.flushCache(FlushCause.SERVLET_REGISTRATION);
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+        assertNull(cache.get(foo));
+    }
+
+    @Test
+    public void testScriptEngineEventFlushesOnlyIfExtensionsChange() throws Exception {
+        final ScriptEngineFactory htl = Mockito.mock(ScriptEngineFactory.class);
+        Mockito.when(htl.getExtensions()).thenReturn(Collections.singletonList("html"));
+        final ScriptEngineFactory jsp = Mockito.mock(ScriptEngineFactory.class);
+        Mockito.when(jsp.getExtensions()).thenReturn(Collections.singletonList("jsp"));
+        final ScriptEngineManager manager = Mockito.mock(ScriptEngineManager.class);
+        Mockito.when(manager.getEngineFactories()).thenReturn(Collections.singletonList(htl));
+        final Field managerField = ResolutionCache.class.getDeclaredField("scriptEngineManager");
+        managerField.setAccessible(true);
+        managerField.set(cache, manager);
+        cache.modified(bundleContext, config);
+
+        final ResolutionKey foo = key("app/foo");
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+        cache.handleEvent(null);
+        assertNotNull(cache.get(foo));
+
+        Mockito.when(manager.getEngineFactories()).thenReturn(Arrays.asList(htl, jsp));
+        cache.handleEvent(null);
+        assertNull(cache.get(foo));
+        assertEquals(Arrays.asList("html", "jsp"), cache.getScriptEngineExtensions());
+    }
+
+    @Test
+    public void testOnlyServletAdaptionsFlushCache() {
+        final ResolutionKey foo = key("app/foo");
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+
+        final ServiceReference<?> unrelated = Mockito.mock(ServiceReference.class);
+        Mockito.when(unrelated.getProperty(AdapterFactory.ADAPTER_CLASSES))
+                .thenReturn(new String[] {"org.example.Model"});
+        cache.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, unrelated));
+        assertNotNull(cache.get(foo));
+
+        final ServiceReference<?> servlet = Mockito.mock(ServiceReference.class);
+        Mockito.when(servlet.getProperty(AdapterFactory.ADAPTER_CLASSES))
+                .thenReturn(new String[] {"org.example.Model", Servlet.class.getName()});
+        cache.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, servlet));
+        assertNull(cache.get(foo));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        final ArgumentCaptor<SlingServletResolverCacheMBean> captor =
+                ArgumentCaptor.forClass(SlingServletResolverCacheMBean.class);
+        Mockito.verify(bundleContext)
+                .registerService(Mockito.eq(SlingServletResolverCacheMBean.class), captor.capture(), Mockito.any());
+        final SlingServletResolverCacheMBean mbean = captor.getValue();
+
+        final ResolutionKey foo = key("app/foo");
+        final ResolutionKey bar = key("app/bar");
+        final CachedResolution resolution = new CachedResolution(
+                Collections.singletonList(Mockito.mock(Servlet.class)), Collections.singletonList("/apps/app/foo"));
+        final CachedResolution negative =
+                new CachedResolution(Collections.emptyList(), Collections.singletonList("/apps/app/bar"));
+        cache.resolve(foo, () -> resolution, () -> null);
+        cache.resolve(foo, () -> resolution, () -> null);
+        cache.resolve(bar, () -> negative, () -> null);
+        cache.resolve(bar, () -> negative, () -> null);
+        cache.resolve(
+                bar,
+                () -> {
+                    throw new AssertionError("Cached resolution must be used");
+                },
+                () -> null);
+
+        assertEquals(2, mbean.getMissCount());
+        assertEquals(3, mbean.getHitCount());
+        assertEquals(2, mbean.getNegativeHitCount());
+        assertEquals(2, Arrays.stream(mbean.getMissTimeHistogram()).sum());
+        assertEquals(mbean.getMissTimeHistogramBounds().length, mbean.getMissTimeHistogram().length);
+
+        addLocation("/apps/app/foo", true);
+        addLocation("/apps/app/bar", false);
+        assertEquals(2, mbean.getResourceTypeHierarchySize());
+        addFolder("/apps/app/foo");
+        assertEquals(1, mbean.getScriptTreeIndexSize());
+
+        cache.onChange(Collections.singletonList(change("/apps/app/foo/foo.html")));
+        mbean.flushCache();
+        assertEquals(1, mbean.getResourceChangeInvalidationCount());
+        assertEquals(1, mbean.getJmxFlushCount());
+        assertEquals(0, mbean.getServletRegistrationFlushCount());
+        assertEquals(0, mbean.getCacheSize());
+        assertEquals(0, mbean.getResourceTypeHierarchySize());
+        assertEquals(0, mbean.getScriptTreeIndexSize());
+    }
+
+    @Test
+    public void testIndexesAreBoundedAndClearedOnDeactivation() throws Exception {
+        final int maximumSize = 100;
+        Mockito.when(config.servletresolver_cacheIndexSize()).thenReturn(maximumSize);
+        cache.modified(bundleContext, config);
+        for (int i = 0; i < maximumSize; i++) {
+            addLocation("/apps/app/type" + i, true);
+        }
+        for (int i = 0; i <= maximumSize; i++) {
+            addFolder("/apps/app/type" + i);
+        }
+        assertEquals(maximumSize, cache.getResourceTypeHierarchy().size());
+        assertEquals(maximumSize, cache.getScriptTreeIndex().size());
+
+        cache.deactivate(bundleContext);
+        assertEquals(0, cache.getResourceTypeHierarchy().size());
+        assertEquals(0, cache.getScriptTreeIndex().size());
+    }
+
+    @Test
+    public void testFullResourceTypeHierarchyIsClearedWithTheCache() throws Exception {
+        final ArgumentCaptor<SlingServletResolverCacheMBean> captor =
+                ArgumentCaptor.forClass(SlingServletResolverCacheMBean.class);
+        Mockito.verify(bundleContext)
+                .registerService(Mockito.eq(SlingServletResolverCacheMBean.class), captor.capture(), Mockito.any());
+        final SlingServletResolverCacheMBean mbean = captor.getValue();
+        final int maximumSize = 100;
+        Mockito.when(config.servletresolver_cacheIndexSize()).thenReturn(maximumSize);
+        cache.modified(bundleContext, config);
+        final ResolutionKey foo = key("app/foo");
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+        for (int i = 0; i < maximumSize; i++) {
+            addLocation("/apps/app/type" + i, true);
+        }
+        assertNotNull(cache.get(foo));
+
+        // the resolutions depend on the dropped entries, so they are flushed as well
+        addLocation("/apps/app/other", true);
+        assertEquals(0, cache.getResourceTypeHierarchy().size());
+        assertNull(cache.get(foo));
+        assertEquals(1, mbean.getIndexOverflowFlushCount());
+
+        // the hierarchy is built again and filters changes as before
+        addLocation("/apps/app/other", true);
+        assertEquals(1, cache.getResourceTypeHierarchy().size());
+        assertTrue(cache.getResourceTypeHierarchy().isAffectedBy("/apps/app/other"));
+        assertFalse(cache.getResourceTypeHierarchy().isAffectedBy("/apps/app/type0"));
+    }
+
+    @Test
+    public void testChangesAfterDeactivationAreIgnored() {
+        cache.deactivate(bundleContext);
+        final long generation = cache.getChangeGeneration();
+        cache.onChange(Collections.singletonList(change("/apps/app/foo/foo.html")));
+        assertEquals(generation, cache.getChangeGeneration());
+    }
+
+    @Test
+    public void testSnapshotIsWrittenOnDeactivationAndReadOnActivation() throws Exception {
+        final File file = new File(folder.getRoot(), "keys.json");
+        Mockito.when(bundleContext.getDataFile(Mockito.anyString())).thenReturn(file);
+        Mockito.when(config.servletresolver_cacheSnapshotInterval()).thenReturn(300);
+        cache.modified(bundleContext, config);
+        assertTrue(cache.getSnapshotKeys().isEmpty());
+
+        final ResolutionKey foo =
+                ResolutionKey.forRequest("GET", "html", null, "app/foo", null, Collections.singleton("html"));
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+        cache.put(
+                key("app/bar"),
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/bar"));
+
+        cache.modified(bundleContext, config);
+        assertEquals(1, cache.getSnapshotKeys().size());
+        assertEquals("app/foo", cache.getSnapshotKeys().get(0).getResourceType());
+    }
+
+    @Test
+    public void testFlushCache() {
+        final ResolutionKey foo = key("app/foo");
+        cache.put(
+                foo,
+                Collections.singletonList(Mockito.mock(Servlet.class)),
+                Collections.singletonList("/apps/app/foo"));
+        cache.flushCache(FlushCause.SERVLET_REGISTRATION);
+        assertNull(cache.get(foo));
+    }
+
+    @Test
+    public void testChangeGenerationIsTrackedWithoutCache() throws Exception {
+        Mockito.when(config.servletresolver_cacheSize()).thenReturn(0);
+        cache.modified(bundleContext, config);
+        final ArgumentCaptor<ResourceChangeListener> listeners = ArgumentCaptor.forClass(ResourceChangeListener.class);
+        Mockito.verify(bundleContext, Mockito.times(4))
+                .registerService(Mockito.eq(ResourceChangeListener.class), listeners.capture(), Mockito.any());
+        final ResourceChangeListener typeListener = listeners.getAllValues().get(3);
+
+        final long generation = cache.getChangeGeneration();
+        cache.onChange(Collections.singletonList(change("/apps/app/foo/foo.html")));
+        assertEquals(generation + 1, cache.getChangeGeneration());
+
+        // a property change not touching the super type is not relevant
+        typeListener.onChange(Collections.singletonList(new ResourceChange(
+                ChangeType.CHANGED, "/content/foo", false, null, Collections.singleton("title"), null)));
+        assertEquals(generation + 1, cache.getChangeGeneration());
+
+        cache.flushCache(FlushCause.SERVLET_REGISTRATION);
+        assertEquals(generation + 2, cache.getChangeGeneration());
+    }
+}
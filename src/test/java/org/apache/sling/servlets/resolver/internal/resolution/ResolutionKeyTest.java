@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.resolution;
+
+import java.util.Collections;
+
+import org.apache.sling.api.SlingJakartaHttpServletRequest;
+import org.apache.sling.api.request.RequestPathInfo;
+import org.apache.sling.api.resource.Resource;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionKeyTest {
+
+    private static Resource resource(final String resourceType) {
+        final Resource resource = Mockito.mock(Resource.class);
+        Mockito.when(resource.getResourceType()).thenReturn(resourceType);
+        Mockito.when(resource.getResourceSuperType()).thenReturn("app/base");
+        return resource;
+    }
+
+    @Test
+    public void testRequestKey() {
+        final Resource resource = resource("app/foo");
+        final RequestPathInfo pathInfo = Mockito.mock(RequestPathInfo.class);
+        Mockito.when(pathInfo.getExtension()).thenReturn("html");
+        Mockito.when(pathInfo.getSelectorString()).thenReturn("a.b");
+        final SlingJakartaHttpServletRequest request = Mockito.mock(SlingJakartaHttpServletRequest.class);
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(request.getResource()).thenReturn(resource);
+        Mockito.when(request.getRequestPathInfo()).thenReturn(pathInfo);
+
+        final ResolutionKey key = ResolutionKey.forRequest(request, Collections.singleton("html"));
+        assertEquals(ResolutionKey.Kind.REQUEST, key.getKind());
+        assertTrue(key.isDefaultExtension());
+        assertArrayEquals(new String[] {"a", "b"}, key.getSelectors());
+        // the selector array is never requested from the path info
+        Mockito.verify(pathInfo, Mockito.never()).getSelectors();
+
+        final ResolutionKey other =
+                ResolutionKey.forRequest("GET", "html", "a.b", "app/foo", "app/base", Collections.singleton("html"));
+        assertEquals(key, other);
+        assertEquals(key.hashCode(), other.hashCode());
+
+        assertNotEquals(
+                key,
+                ResolutionKey.forRequest("GET", "html", "a", "app/foo", "app/base", Collections.singleton("html")));
+        assertNotEquals(
+                key,
+                ResolutionKey.forRequest("POST", "html", "a.b", "app/foo", "app/base", Collections.singleton("html")));
+        assertFalse(ResolutionKey.forRequest("GET", "html", "a.b", "app/foo", "app/base", Collections.emptySet())
+                .isDefaultExtension());
+    }
+
+    @Test
+    public void testEmptySelectors() {
+        final ResolutionKey key = ResolutionKey.forRequest("GET", "json", "", "app/foo", null, Collections.emptySet());
+        assertEquals(ResolutionKey.forRequest("GET", "json", null, "app/foo", null, Collections.emptySet()), key);
+        assertEquals(0, key.getSelectors().length);
+    }
+
+    @Test
+    public void testScriptKey() {
+        final ResolutionKey key = ResolutionKey.forScript("script.html", resource("app/foo"));
+        assertEquals(".html", key.getExtension());
+        assertEquals(key, ResolutionKey.forScript("script.html", resource("app/foo")));
+        // keys for different scripts with the same extension are different
+        assertNotEquals(key, ResolutionKey.forScript("other.html", resource("app/foo")));
+
+        final ResolutionKey withoutResource = ResolutionKey.forScript("script", null);
+        assertEquals("", withoutResource.getResourceType());
+        assertEquals("", withoutResource.getBaseResourceType());
+    }
+
+    @Test
+    public void testKindsAreDifferent() {
+        final Resource resource = resource("app/foo");
+        assertNotEquals(
+                ResolutionKey.forMethod("GET", null, resource, "html"),
+                ResolutionKey.forRequest("GET", "html", null, "app/foo", "app/base", Collections.emptySet()));
+    }
+}
@@ -51,6 +51,7 @@ public class ServletMounterTest {
         Mockito.when(config.servletresolver_paths()).thenReturn(new String[] {"/"});
         Mockito.when(config.servletresolver_defaultExtensions()).thenReturn(new String[] {"html"});
         Mockito.when(config.servletresolver_cacheSize()).thenReturn(200);
+        Mockito.when(config.servletresolver_cacheIndexSize()).thenReturn(10000);
 
         // create mock for resource resolver factory
         final ResourceResolverFactory factory = Mockito.mock(ResourceResolverFactory.class);